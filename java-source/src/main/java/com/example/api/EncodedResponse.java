@@ -0,0 +1,80 @@
+package com.example.api;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import net.corda.core.crypto.SecureHash;
+
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A JSON body encoded once, kept both plain and gzipped. Each representation has its own strong ETag, the hash of
+ * the plain content with a {@code -gzip} suffix for the gzipped one, so caches never mix them up.
+ */
+public class EncodedResponse {
+
+    private final byte[] plain;
+    private final byte[] gzipped;
+    private final EntityTag plainTag;
+    private final EntityTag gzipTag;
+
+    private EncodedResponse(byte[] plain) {
+        this.plain = plain;
+        this.gzipped = gzip(plain);
+        String hash = SecureHash.sha256(plain).toString();
+        this.plainTag = new EntityTag(hash);
+        this.gzipTag = new EntityTag(hash + "-gzip");
+    }
+
+    public static EncodedResponse of(ObjectMapper json, Object body) {
+        try {
+            return new EncodedResponse(json.writeValueAsBytes(body));
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Could not encode response", e);
+        }
+    }
+
+    public EntityTag getEtag(boolean gzip) {
+        return gzip ? gzipTag : plainTag;
+    }
+
+    /**
+     * Answers with 304 when the client already holds this body, otherwise with the gzipped or plain bytes depending on
+     * what the client accepts.
+     */
+    public Response toResponse(Request request, String acceptEncoding) {
+        boolean gzip = acceptEncoding != null && acceptEncoding.contains("gzip");
+        EntityTag etag = getEtag(gzip);
+
+        Response.ResponseBuilder notModified = request.evaluatePreconditions(etag);
+        if (notModified != null) {
+            return notModified.tag(etag).header("Vary", "Accept-Encoding").build();
+        }
+
+        Response.ResponseBuilder builder = Response.ok()
+                .type(MediaType.APPLICATION_JSON_TYPE)
+                .tag(etag)
+                .header("Vary", "Accept-Encoding");
+
+        if (gzip) {
+            return builder.entity(gzipped).header("Content-Encoding", "gzip").build();
+        }
+        return builder.entity(plain).build();
+    }
+
+    private static byte[] gzip(byte[] bytes) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 4 + 32);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(bytes);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+}
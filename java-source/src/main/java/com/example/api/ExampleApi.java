@@ -1,56 +1,177 @@
 package com.example.api;
 
+import com.example.flow.BulkIssueFlow;
 import com.example.flow.ExampleFlow;
+import com.example.flow.MultiPaymentFlow;
+import com.example.flow.OrderBookFlow;
+import com.example.flow.RateSubscriptionFlow;
 import com.example.models.CurrencyRate;
-import com.example.models.PeerInfo;
+import com.example.models.HistoryEntry;
+import com.example.models.RateHistory;
+import com.example.models.RatePoint;
+import com.example.plugin.ExamplePlugin;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.google.common.collect.ImmutableMap;
 import net.corda.core.contracts.*;
-import net.corda.core.crypto.CompositeKey;
 import net.corda.core.crypto.Party;
 import net.corda.core.crypto.SecureHash;
 import net.corda.core.messaging.CordaRPCOps;
-import net.corda.core.messaging.FlowHandle;
 import net.corda.core.node.NodeInfo;
-import net.corda.core.node.ServiceEntry;
 import net.corda.core.serialization.OpaqueBytes;
-import net.corda.core.transactions.SignedTransaction;
 import net.corda.flows.CashFlowCommand;
 import net.corda.flows.IssuerFlow;
 import net.corda.jackson.JacksonSupport;
 
+import javax.annotation.PreDestroy;
 import javax.ws.rs.*;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response;
+import java.io.IOException;
+import java.math.BigDecimal;
 import java.util.*;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.stream.Collectors;
 
 import static java.util.Collections.singletonMap;
-import static java.util.stream.Collectors.toList;
 
 // This API is accessible from /api/example. All paths specified below are relative to it.
 @Path("example")
 public class ExampleApi {
 
-    private final String myLegalName;
-
     private final String NOTARY_NAME = "Controller";
 
     private final CordaRPCOps services;
 
-    private List<Party> notaries;
-    private List<Party> peers;
-    private List<Party> issuers;
+    private final WarmUp<Backend> backend;
+    private final FlowResultCache flowResults = new FlowResultCache();
 
+    /**
+     * Returns at once: the network map, vault and history indexes are built by a background {@link WarmUp}, and
+     * requests arriving before it is done wait for it. Load balancers should only route here once {@link #ready()}
+     * says so.
+     */
     public ExampleApi(CordaRPCOps services) {
-        this.myLegalName = services.nodeIdentity().getLegalIdentity().getName();
         this.services = services;
+        this.backend = WarmUp.start("example api", warmUp -> warmUp(services, NOTARY_NAME, warmUp));
+    }
+
+    /**
+     * Run by the web server when it shuts the API down: releases the RPC feeds, so the node stops buffering updates
+     * for us, and closes the history index.
+     */
+    @PreDestroy
+    public void close() {
+        if (backend.isReady()) {
+            Backend current = backend.get();
+            current.feeds.close();
+            current.closeHistory();
+        }
+    }
+
+    /**
+     * Everything the endpoints need that takes RPC round trips or class loading to set up.
+     */
+    private static class Backend {
+        final NodeInfo me;
+        final RpcFeeds feeds;
+        final NetworkMapSnapshot networkMap;
+        final PartyResolver parties;
+        final VaultIndex vault;
+        final ExchangeRouter router;
+        final TransactionHistoryIndex history;
+        final ObjectMapper json;
+
+        Backend(NodeInfo me, RpcFeeds feeds, NetworkMapSnapshot networkMap, PartyResolver parties, VaultIndex vault,
+                ExchangeRouter router, TransactionHistoryIndex history, ObjectMapper json) {
+            this.me = me;
+            this.feeds = feeds;
+            this.networkMap = networkMap;
+            this.parties = parties;
+            this.vault = vault;
+            this.router = router;
+            this.history = history;
+            this.json = json;
+        }
+
+        void closeHistory() {
+            if (history == null) {
+                return;
+            }
+            try {
+                history.close();
+            } catch (IOException e) {
+                System.out.println("could not close history index: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Builds the {@link Backend}, then pays off the request path for what the first requests would otherwise pay for:
+     * the Jackson mapper for rate tables and its serializers, loading every flow class this CorDapp lets RPC start,
+     * and one call of each RPC result type the endpoints read, so the RPC client has registered them.
+     */
+    private static Backend warmUp(CordaRPCOps services, String notaryName, WarmUp<Backend> warmUp) throws Exception {
+        NodeInfo me = warmUp.step("identity", services::nodeIdentity);
+
+        // A failed attempt releases what it opened: the next one starts from scratch.
+        RpcFeeds feeds = new RpcFeeds(services);
+        Backend backend = null;
+        try {
+            backend = warmUp.step("feeds", () -> {
+                NetworkMapSnapshot networkMap = new NetworkMapSnapshot(services, feeds, me.getLegalIdentity().getName(), notaryName);
+                PartyResolver parties = new PartyResolver(services, feeds);
+                VaultIndex vault = new VaultIndex(feeds);
+                TransactionHistoryIndex history = openHistory(feeds);
+                return new Backend(me, feeds, networkMap, parties, vault, new ExchangeRouter(services, networkMap), history,
+                        JacksonSupport.createNonRpcMapper());
+            });
+            feeds.connect();
+
+            ObjectMapper json = backend.json;
+            warmUp.step("jackson", () -> {
+                Set<CurrencyRate> sample = Collections.singleton(new CurrencyRate("USD", "EUR", 1f, System.currentTimeMillis()));
+                return json.readValue(json.writeValueAsString(sample), new TypeReference<Set<CurrencyRate>>() {
+                });
+            });
+
+            warmUp.step("flow classes", () -> {
+                ClassLoader loader = ExampleApi.class.getClassLoader();
+                for (Map.Entry<String, Set<String>> flow : new ExamplePlugin().getRequiredFlows().entrySet()) {
+                    Class.forName(flow.getKey(), true, loader);
+                    for (String parameter : flow.getValue()) {
+                        Class.forName(parameter, true, loader);
+                    }
+                }
+                return null;
+            });
+
+            warmUp.step("rpc types", () -> {
+                services.getCashBalances();
+                return services.getVaultTransactionNotes(SecureHash.sha256("rates"));
+            });
+
+            return backend;
+        } catch (Exception e) {
+            feeds.close();
+            if (backend != null) {
+                backend.closeHistory();
+            }
+            throw e;
+        }
+    }
 
-        updatePeers();
-        updateIssuers();
-        updateNotaries();
+    private static TransactionHistoryIndex openHistory(RpcFeeds feeds) {
+        try {
+            return new TransactionHistoryIndex(feeds);
+        } catch (IOException e) {
+            System.out.println("history index unavailable: " + e.getMessage());
+            return null;
+        }
     }
 
     public static <T> T getLastElement(final Iterable<T> elements) {
@@ -64,50 +185,77 @@ public class ExampleApi {
         return lastElement;
     }
 
+    /**
+     * Like every endpoint that starts a flow, this can be retried safely with an {@value FlowResultCache#HEADER} header,
+     * see {@link FlowResultCache}.
+     */
     @GET
     @Path("issue/{peerName}/{amount}/{currency}")
-    public String issueCurrency(@PathParam("peerName") String peerName, @PathParam("amount") int quantity, @PathParam("currency") String currency) {
+    public String issueCurrency(@PathParam("peerName") String peerName, @PathParam("amount") int quantity, @PathParam("currency") String currency,
+                                @HeaderParam(FlowResultCache.HEADER) String idempotencyKey) {
         try {
-            return issueMoney(peerName, quantity, ContractsDSL.currency(currency));
+            return issueMoney(peerName, quantity, ContractsDSL.currency(currency), idempotencyKey);
         } catch (Exception e) {
-            e.printStackTrace();
-            return e.getMessage();
+            return flowFailed(e, idempotencyKey);
         }
     }
 
     @GET
     @Path("issue/{peerName}/{amount}")
-    public String issue(@PathParam("peerName") String peerName, @PathParam("amount") int quantity) {
+    public String issue(@PathParam("peerName") String peerName, @PathParam("amount") int quantity,
+                        @HeaderParam(FlowResultCache.HEADER) String idempotencyKey) {
         try {
-            return issueMoney(peerName, quantity, ContractsDSL.USD);
+            return issueMoney(peerName, quantity, ContractsDSL.USD, idempotencyKey);
         } catch (Exception e) {
-            e.printStackTrace();
-            return e.getMessage();
+            return flowFailed(e, idempotencyKey);
         }
     }
 
-    private String issueMoney(String peerName, long quantity, Currency currency) throws Exception {
-        if (notaries.isEmpty()) {
-            updateNotaries();
+    /**
+     * Asks {@code issuerName} to issue cash to this node. This is how a trader is funded in the currencies it pays out:
+     * payouts are drawn on the issuers the trader holds cash of, see {@link ExampleFlow#issuerOf}.
+     */
+    @GET
+    @Path("fund/{issuer}/{amount}/{currency}")
+    public String fund(@PathParam("issuer") String issuerName, @PathParam("amount") int quantity, @PathParam("currency") String currency,
+                       @HeaderParam(FlowResultCache.HEADER) String idempotencyKey) {
+        Party issuer = backend.get().parties.byName(issuerName);
+        if (issuer == null) {
+            throw new NotFoundException("Unknown issuer " + issuerName);
+        }
+
+        try {
+            Amount<Currency> amount = new Amount<>(quantity, ContractsDSL.currency(currency));
+            return flowResults.run(idempotencyKey, "fund/" + issuerName + "/" + quantity + "/" + currency,
+                    () -> services.startFlowDynamic(IssuerFlow.IssuanceRequester.class, amount, backend.get().me.getLegalIdentity(), OpaqueBytes.Companion.of((byte) 1), issuer).getReturnValue(),
+                    signedTransaction -> signedTransaction.getId().toString(),
+                    10 * 1000);
+        } catch (Exception e) {
+            return flowFailed(e, idempotencyKey);
         }
+    }
 
-        Party party = services.partyFromName(peerName);
+    private String issueMoney(String peerName, long quantity, Currency currency, String idempotencyKey) throws Exception {
+        List<Party> notaries = backend.get().networkMap.getNotaries();
 
+        Party party = backend.get().parties.byName(peerName);
 
-        CashFlowCommand.IssueCash cash = new CashFlowCommand.IssueCash(new Amount<>(quantity, currency), OpaqueBytes.Companion.of((byte) 1), party, notaries.get(0));
 
-        FlowHandle handle = services.startFlowDynamic(IssuerFlow.IssuanceRequester.class, cash.getAmount(), cash.getRecipient(), cash.getIssueRef(), services.nodeIdentity().getLegalIdentity());
-        SignedTransaction signedTransaction = (SignedTransaction) handle.getReturnValue().get(10 * 1000, TimeUnit.MILLISECONDS);
+        CashFlowCommand.IssueCash cash = new CashFlowCommand.IssueCash(new Amount<>(quantity, currency), OpaqueBytes.Companion.of((byte) 1), party, notaries.get(0));
 
-        return signedTransaction.getId().toString();
+        return flowResults.run(idempotencyKey, "issue/" + peerName + "/" + quantity + "/" + currency,
+                () -> services.startFlowDynamic(IssuerFlow.IssuanceRequester.class, cash.getAmount(), cash.getRecipient(), cash.getIssueRef(), backend.get().me.getLegalIdentity()).getReturnValue(),
+                signedTransaction -> signedTransaction.getId().toString(),
+                10 * 1000);
     }
 
     @GET
     @Path("pay/{peerName}/{amount}/{currency}")
-    public String pay(@PathParam("peerName") String peerName, @PathParam("amount") int quantity, @PathParam("currency") String currency) {
+    public String pay(@PathParam("peerName") String peerName, @PathParam("amount") int quantity, @PathParam("currency") String currency,
+                      @HeaderParam(FlowResultCache.HEADER) String idempotencyKey) {
         System.out.println("starting");
 
-        Party party = services.partyFromName(peerName);
+        Party party = backend.get().parties.byName(peerName);
 
         if (party == null) {
             return "PeerInfo not found";
@@ -116,96 +264,311 @@ public class ExampleApi {
         try {
             Amount<Issued<Currency>> amount = new Amount<>(
                     quantity,
-                    new Issued<>(new PartyAndReference(issuers.get(0), OpaqueBytes.Companion.of((byte) 1)),
+                    new Issued<>(new PartyAndReference(backend.get().networkMap.getIssuers().get(0), OpaqueBytes.Companion.of((byte) 1)),
                             ContractsDSL.currency(currency)
                     )
             );
 
             CashFlowCommand.PayCash cash = new CashFlowCommand.PayCash(amount, party);
 
-            FlowHandle<SignedTransaction> handle = cash.startFlow(services);
+            return flowResults.run(idempotencyKey, "pay/" + peerName + "/" + quantity + "/" + currency,
+                    () -> cash.startFlow(services).getReturnValue(),
+                    tx -> tx.getId().toString(),
+                    10 * 1000);
+        } catch (Exception e) {
+            return flowFailed(e, idempotencyKey);
+        }
+    }
 
-            SignedTransaction tx = handle.getReturnValue().get(10 * 1000, TimeUnit.MILLISECONDS);
+    /**
+     * Pays every leg in one transaction. Each leg is given as {@code peerName:amount:currency}, e.g.
+     * /pay?leg=NodeA:100:USD&leg=NodeB:50:EUR.
+     */
+    @GET
+    @Path("pay")
+    public String payMany(@QueryParam("leg") List<String> legs, @HeaderParam(FlowResultCache.HEADER) String idempotencyKey) {
+        try {
+            List<MultiPaymentFlow.PaymentLeg> paymentLegs = parseLegs(legs, backend.get().networkMap.getIssuers().get(0));
 
-            return tx.getId().toString();
+            return flowResults.run(idempotencyKey, "pay?" + legs,
+                    () -> services.startFlowDynamic(MultiPaymentFlow.class, paymentLegs).getReturnValue(),
+                    tx -> tx.getId().toString(),
+                    10 * 1000);
         } catch (Exception e) {
-            return e.getMessage();
+            return flowFailed(e, idempotencyKey);
         }
     }
 
+    /**
+     * Issues cash from this node to every leg, given as for {@link #payMany(List)}. Legs are issued by one
+     * {@link BulkIssueFlow}, in transactions of at most {@link BulkIssueFlow#MAX_BATCH_SIZE} outputs each.
+     *
+     * @return the ids of the issuing transactions, comma separated.
+     */
+    @GET
+    @Path("issue")
+    public String issueMany(@QueryParam("leg") List<String> legs, @HeaderParam(FlowResultCache.HEADER) String idempotencyKey) {
+        try {
+            List<MultiPaymentFlow.PaymentLeg> issueLegs = parseLegs(legs, backend.get().me.getLegalIdentity());
+            Party notary = backend.get().networkMap.getNotaries().get(0);
+
+            // One flow for all batches: a failed start leaves nothing running that a retry could duplicate.
+            return flowResults.run(idempotencyKey, "issue?" + legs,
+                    () -> services.startFlowDynamic(BulkIssueFlow.class, issueLegs, notary).getReturnValue(),
+                    txs -> txs.stream().map(tx -> tx.getId().toString()).collect(Collectors.joining(",")),
+                    10 * 1000);
+        } catch (Exception e) {
+            return flowFailed(e, idempotencyKey);
+        }
+    }
+
+    /**
+     * Parses legs of the form {@code peerName:amount:currency} into amounts of cash issued by {@code issuer}.
+     */
+    private List<MultiPaymentFlow.PaymentLeg> parseLegs(List<String> legs, Party issuer) {
+        List<MultiPaymentFlow.PaymentLeg> parsed = new ArrayList<>();
+        for (String leg : legs) {
+            String[] parts = leg.split(":");
+            if (parts.length != 3) {
+                throw new IllegalArgumentException("Malformed leg: " + leg);
+            }
+
+            Party party = backend.get().parties.byName(parts[0]);
+            if (party == null) {
+                throw new IllegalArgumentException("PeerInfo not found: " + parts[0]);
+            }
+
+            parsed.add(new MultiPaymentFlow.PaymentLeg(party, new Amount<>(
+                    Long.parseLong(parts[1]),
+                    new Issued<>(new PartyAndReference(issuer, OpaqueBytes.Companion.of((byte) 1)),
+                            ContractsDSL.currency(parts[2])
+                    )
+            )));
+        }
+        return parsed;
+    }
+
+    /**
+     * What a flow-starting endpoint answers when {@link FlowResultCache#run} throws. Its 409s and 503s, and any other
+     * {@link WebApplicationException}, go out as they are, and malformed requests are 400s. A flow still running when
+     * the wait is over is a 202 if the request has an {@value FlowResultCache#HEADER}, so retrying with it picks up
+     * the result, and a 503 otherwise. A failed flow is answered with its message, as before.
+     */
+    private static String flowFailed(Exception e, String idempotencyKey) {
+        if (e instanceof WebApplicationException) {
+            throw (WebApplicationException) e;
+        }
+        if (e instanceof IllegalArgumentException) {
+            throw new BadRequestException(e.getMessage());
+        }
+        if (e instanceof TimeoutException) {
+            if (idempotencyKey == null) {
+                throw new ServiceUnavailableException("The flow is still running");
+            }
+            throw new WebApplicationException(Response.status(Response.Status.ACCEPTED)
+                    .entity("The flow is still running, retry with the same " + FlowResultCache.HEADER)
+                    .build());
+        }
+        e.printStackTrace();
+        return e.getMessage();
+    }
+
+    /**
+     * @return the payout's id, or if the trader rested the exchange, {@code resting <order> with <trader>}; the order
+     * id is the fee payment's, and {@link #getOrder(String, String)} tells when it is paid out.
+     */
     @GET
     @Path("exchange/{recipient}/{quantity}/{currency}")
     @Produces(MediaType.APPLICATION_JSON)
-    public String exchange(@PathParam("quantity") int quantity, @PathParam("recipient") String recipient, @PathParam("currency") String currency) {
+    public String exchange(@PathParam("quantity") int quantity, @PathParam("recipient") String recipient, @PathParam("currency") String currency,
+                           @QueryParam("tranches") @DefaultValue("1") int tranches,
+                           @HeaderParam(FlowResultCache.HEADER) String idempotencyKey) {
 
         Amount<Issued<Currency>> amount = new Amount<>(
                 quantity,
-                new Issued<>(new PartyAndReference(issuers.get(0), OpaqueBytes.Companion.of((byte) 1)),
+                new Issued<>(new PartyAndReference(backend.get().networkMap.getIssuers().get(0), OpaqueBytes.Companion.of((byte) 1)),
                         ContractsDSL.currency(currency)
                 )
         );
 
-        FlowHandle flowHandle = services.startFlowDynamic(
-                ExampleFlow.MasterFxFlow.class,
-                services.partyFromName(recipient),
-                services.partyFromName("NodeC"),
-                amount);
+        Party receiver = backend.get().parties.byName(recipient);
+        if (receiver == null) {
+            throw new BadRequestException("Unknown recipient " + recipient);
+        }
+        String request = "exchange/" + recipient + "/" + quantity + "/" + currency + "?tranches=" + tranches;
+
+        if (tranches > 1) {
+            return exchangeInTranches(receiver, amount, tranches, request, idempotencyKey);
+        }
 
         try {
-            return ((SignedTransaction) flowHandle.getReturnValue().get(10 * 10000, TimeUnit.MILLISECONDS)).getId().toString();
+            // The trader is only picked when the flow is actually started, not on a retry.
+            return flowResults.run(idempotencyKey, request,
+                    () -> services.startFlowDynamic(
+                            ExampleFlow.MasterFxFlow.class,
+                            receiver,
+                            backend.get().router.bestTrader(receiver),
+                            amount).getReturnValue(),
+                    outcome -> outcome.getPayout() != null ? outcome.getPayout().toString()
+                            : "resting " + outcome.getRestingOrder() + " with " + outcome.getTrader().getName(),
+                    10 * 10000);
         } catch (Exception e) {
-            System.out.println("error1: " + e.getMessage());
+            return flowFailed(e, idempotencyKey);
         }
+    }
 
-        return "done";
+    private String exchangeInTranches(Party receiver, Amount<Issued<Currency>> amount, int tranches, String request, String idempotencyKey) {
+        try {
+            return flowResults.run(idempotencyKey, request,
+                    // The traders are only picked when the flow is actually started, not on a retry.
+                    () -> services.startFlowDynamic(ExampleFlow.SplitFxFlow.class, receiver, amount,
+                            backend.get().router.bestTraders(receiver, tranches)).getReturnValue(),
+                    ids -> ids.stream().map(SecureHash::toString).collect(Collectors.joining(",")),
+                    10 * 10000);
+        } catch (Exception e) {
+            return flowFailed(e, idempotencyKey);
+        }
+    }
+
+    /**
+     * What became of an exchange {@code trader} rested: {@code paid <tx id>}, {@code retrying: <last failure>},
+     * {@code resting}, or {@code unknown} if this node neither placed it nor receives it.
+     */
+    @GET
+    @Path("orders/{trader}/{order}")
+    public String getOrder(@PathParam("trader") String traderName, @PathParam("order") String order) throws Exception {
+        Party trader = backend.get().parties.byName(traderName);
+        if (trader == null) {
+            throw new NotFoundException("Unknown trader " + traderName);
+        }
+        SecureHash id;
+        try {
+            id = SecureHash.parse(order);
+        } catch (IllegalArgumentException e) {
+            throw new BadRequestException("Malformed order id " + order);
+        }
+        return services.startFlowDynamic(OrderBookFlow.StatusRequester.class, trader, id).getReturnValue()
+                .get(10 * 1000, TimeUnit.MILLISECONDS);
     }
 
     @GET
     @Path("exit/{amount}/{currency}")
-    public String exit(@PathParam("amount") int quantity, @PathParam("currency") String currency) {
+    public String exit(@PathParam("amount") int quantity, @PathParam("currency") String currency,
+                       @HeaderParam(FlowResultCache.HEADER) String idempotencyKey) {
         try {
             Amount<Currency> amount = new Amount<>((long) quantity, ContractsDSL.currency(currency));
 
             System.out.println(amount);
 
-            if (issuers.isEmpty()) {
-                updateIssuers();
-            }
-
-            CashFlowCommand.ExitCash exitCash = new CashFlowCommand.ExitCash(amount, issuers.get(0).ref(OpaqueBytes.Companion.of((byte) 1)).getReference());
-
-            FlowHandle<SignedTransaction> handle = exitCash.startFlow(services);
+            CashFlowCommand.ExitCash exitCash = new CashFlowCommand.ExitCash(amount, backend.get().networkMap.getIssuers().get(0).ref(OpaqueBytes.Companion.of((byte) 1)).getReference());
 
-            SignedTransaction tx = handle.getReturnValue().get(10 * 1000, TimeUnit.MILLISECONDS);
-
-            return tx.getId().toString();
+            return flowResults.run(idempotencyKey, "exit/" + quantity + "/" + currency,
+                    () -> exitCash.startFlow(services).getReturnValue(),
+                    tx -> tx.getId().toString(),
+                    10 * 1000);
         } catch (Exception e) {
-
-            return e.getMessage();
+            return flowFailed(e, idempotencyKey);
         }
+    }
+
+    /**
+     * The RPC update feeds this web tier holds open: one per feed, however many requests have been served.
+     */
+    @GET
+    @Path("feeds")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Map<String, Object> getFeeds() {
+        return backend.get().feeds.report();
+    }
 
+    /**
+     * 200 once this web server has warmed up and serves requests without waiting, 503 until then. Either way the body
+     * has the time to ready and how long each warm-up step took, see {@link WarmUp#report()}.
+     */
+    @GET
+    @Path("ready")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response ready() {
+        Map<String, Object> report = backend.report();
+        backend.retryIfFailed();
+        return Response.status(backend.isReady() ? Response.Status.OK : Response.Status.SERVICE_UNAVAILABLE)
+                .entity(report)
+                .build();
     }
 
     @GET
     @Path("vault")
     @Produces(MediaType.APPLICATION_JSON)
     public List<StateAndRef<ContractState>> getAllTransactions() {
-        return services.vaultAndUpdates().getFirst();
+        return backend.get().vault.getAll();
     }
 
+    /**
+     * Returns one page of the unconsumed states matching every given filter. Issuer and participants are legal names;
+     * amounts are in the smallest unit of the currency. The page tells whether more states match, not how many.
+     */
     @GET
-    @Path("vault/{id}")
+    @Path("vault/query")
     @Produces(MediaType.APPLICATION_JSON)
-    public StateAndRef<ContractState> getTransactionById(@PathParam("id") String id) {
+    public VaultIndex.Page queryVault(@QueryParam("stateClass") String stateClass,
+                                      @QueryParam("currency") String currency,
+                                      @QueryParam("issuer") String issuer,
+                                      @QueryParam("minAmount") Long minAmount,
+                                      @QueryParam("maxAmount") Long maxAmount,
+                                      @QueryParam("participant") List<String> participants,
+                                      @QueryParam("offset") @DefaultValue("0") int offset,
+                                      @QueryParam("limit") @DefaultValue("100") int limit) {
+        List<String> participantKeys = new ArrayList<>();
+        for (String participant : participants) {
+            participantKeys.add(keyOf(participant));
+        }
 
-        for (StateAndRef stateAndRef : services.vaultAndUpdates().getFirst()) {
+        return backend.get().vault.query(new VaultIndex.Filter(
+                stateClass,
+                currency,
+                issuer == null ? null : keyOf(issuer),
+                minAmount,
+                maxAmount,
+                participantKeys,
+                offset,
+                Math.min(limit, 1000)
+        ));
+    }
 
-            if (stateAndRef.getRef().getTxhash().equals(SecureHash.parse(id))) {
-                return stateAndRef;
-            }
+    /**
+     * Returns the transactions that touched {@code party} (a legal name) in {@code currency} between {@code since} and
+     * {@code until} (epoch millis), oldest first, one entry per transaction and currency. Both filters are optional.
+     * Transactions without a timestamp are timed by when the web server saw them arrive; those backfilled from before it
+     * ran have no place in time and are only returned when neither bound is given.
+     * Served from the {@link TransactionHistoryIndex}, never from the ledger.
+     */
+    @GET
+    @Path("history")
+    @Produces(MediaType.APPLICATION_JSON)
+    public List<HistoryEntry> getHistory(@QueryParam("party") String party,
+                                         @QueryParam("currency") String currency,
+                                         @QueryParam("since") @DefaultValue("0") long since,
+                                         @QueryParam("until") @DefaultValue("9223372036854775807") long until,
+                                         @QueryParam("offset") @DefaultValue("0") int offset,
+                                         @QueryParam("limit") @DefaultValue("100") int limit) {
+        TransactionHistoryIndex history = backend.get().history;
+        if (history == null) {
+            throw new ServiceUnavailableException("The history index could not be opened");
+        }
+        if (currency != null && currency.length() != 3) {
+            throw new BadRequestException("Not a currency code: " + currency);
         }
 
-        throw new NotFoundException("Could not find transaction");
+        return history.query(party == null ? null : keyOf(party), currency, since, until, offset, Math.min(limit, 1000));
+    }
+
+    @GET
+    @Path("vault/{id}")
+    @Produces(MediaType.APPLICATION_JSON)
+    public StateAndRef<ContractState> getTransactionById(@PathParam("id") String id) {
+        return backend.get().vault.getByTxHash(SecureHash.parse(id)).stream()
+                .findFirst()
+                .orElseThrow(() -> new NotFoundException("Could not find transaction"));
     }
 
     @GET
@@ -218,17 +581,15 @@ public class ExampleApi {
     @GET
     @Path("issuers")
     @Produces(MediaType.APPLICATION_JSON)
-    public List<String> getIssuers() {
-        updateIssuers();
-        return issuers.stream().map(Party::getName).collect(toList());
+    public Response getIssuers(@Context Request request, @HeaderParam(HttpHeaders.ACCEPT_ENCODING) String acceptEncoding) {
+        return backend.get().networkMap.issuersResponse().toResponse(request, acceptEncoding);
     }
 
     @GET
     @Path("issuers/{name}")
     @Produces(MediaType.APPLICATION_JSON)
     public Party getIssuerByName(@PathParam("name") String name) {
-        updateIssuers();
-        return issuers.stream()
+        return backend.get().networkMap.getIssuers().stream()
                 .filter(party -> party.getName().equals(name))
                 .findFirst()
                 .orElseThrow(NotFoundException::new);
@@ -237,30 +598,15 @@ public class ExampleApi {
     @GET
     @Path("peers")
     @Produces(MediaType.APPLICATION_JSON)
-    public List<PeerInfo> getPeers() {
-        updatePeers();
-
-        return services
-                .networkMapUpdates()
-                .getFirst()
-                .stream()
-                .filter(peer -> !peer.getLegalIdentity().getName().equals(myLegalName)
-                        && !peer.getLegalIdentity().getName().equals(NOTARY_NAME))
-                .map(nodeInfo -> new PeerInfo(nodeInfo.getLegalIdentity().getName(),
-                                nodeInfo.getAddress(),
-                                nodeInfo.getPhysicalLocation(),
-                                nodeInfo.getAdvertisedServices()
-                        )
-                )
-                .collect(Collectors.toList());
+    public Response getPeers(@Context Request request, @HeaderParam(HttpHeaders.ACCEPT_ENCODING) String acceptEncoding) {
+        return backend.get().networkMap.peersResponse().toResponse(request, acceptEncoding);
     }
 
     @GET
     @Path("peers/{name}")
     @Produces(MediaType.APPLICATION_JSON)
     public Party getPeerByName(@PathParam("name") String name) {
-        updateIssuers();
-        return peers.stream()
+        return backend.get().networkMap.getPeers().stream()
                 .filter(party -> party.getName().equals(name))
                 .findFirst()
                 .orElseThrow(NotFoundException::new);
@@ -270,45 +616,28 @@ public class ExampleApi {
     @Path("/peers/hash/{hash}")
     @Produces(MediaType.APPLICATION_JSON)
     public Party peerByHash(@PathParam("hash") String hash) {
-        return services.partyFromKey(CompositeKey.Companion.parseFromBase58(hash));
+        return backend.get().parties.byKey(hash);
     }
 
     @GET
     @Path("/traders")
     @Produces(MediaType.APPLICATION_JSON)
-    public List<PeerInfo> getTraders() {
-        return services
-                .networkMapUpdates()
-                .getFirst()
-                .stream()
-                .filter(peer -> !peer.getLegalIdentity().getName().equals(NOTARY_NAME)
-                        && isTrader(peer)
-                )
-                .map(nodeInfo -> new PeerInfo(nodeInfo.getLegalIdentity().getName(),
-                                nodeInfo.getAddress(),
-                                nodeInfo.getPhysicalLocation(),
-                                nodeInfo.getAdvertisedServices()
-                        )
-                )
-                .collect(Collectors.toList());
+    public Response getTraders(@Context Request request, @HeaderParam(HttpHeaders.ACCEPT_ENCODING) String acceptEncoding) {
+        return backend.get().networkMap.tradersResponse().toResponse(request, acceptEncoding);
     }
 
     @GET
     @Path("notaries")
     @Produces(MediaType.APPLICATION_JSON)
-    public List<Party> getNotaryList() {
-        if (notaries.isEmpty()) {
-            updateNotaries();
-        }
-        return notaries;
+    public Response getNotaryList(@Context Request request, @HeaderParam(HttpHeaders.ACCEPT_ENCODING) String acceptEncoding) {
+        return backend.get().networkMap.notariesResponse().toResponse(request, acceptEncoding);
     }
 
     @GET
     @Path("notaries/{name}")
     @Produces(MediaType.APPLICATION_JSON)
     public Party getNotariesByName(@PathParam("name") String name) {
-        updateIssuers();
-        return notaries.stream()
+        return backend.get().networkMap.getNotaries().stream()
                 .filter(party -> party.getName().equals(name))
                 .findFirst()
                 .orElseThrow(NotFoundException::new);
@@ -318,7 +647,7 @@ public class ExampleApi {
     @Path("me")
     @Produces(MediaType.APPLICATION_JSON)
     public Map<String, String> whoami() {
-        return singletonMap("me", myLegalName);
+        return singletonMap("me", backend.get().me.getLegalIdentity().getName());
     }
 
     @GET
@@ -330,24 +659,92 @@ public class ExampleApi {
             throw new NotAllowedException("Not a trader");
         }
 
-        ObjectMapper json = JacksonSupport.createNonRpcMapper();
+        ObjectMapper json = backend.get().json;
         Set<CurrencyRate> rates = getRates();
+        long now = System.currentTimeMillis();
 
 
         //replace
-        if (!rates.add(new CurrencyRate(from, to, rate))) {
-            rates.remove(new CurrencyRate(from, to, rate));
-            rates.add(new CurrencyRate(from, to, rate));
+        if (!rates.add(new CurrencyRate(from, to, rate, now))) {
+            rates.remove(new CurrencyRate(from, to, rate, now));
+            rates.add(new CurrencyRate(from, to, rate, now));
         }
 
         try {
             services.addVaultTransactionNote(SecureHash.sha256("rates"), json.writeValueAsString(rates));
+            services.startFlowDynamic(RateSubscriptionFlow.PublishRate.class, from, to, now, RateHistory.toScaled(rate));
             return rates;
         } catch (JsonProcessingException e) {
             return null;
         }
     }
 
+    /**
+     * Returns the recorded rates of a pair between {@code since} and {@code until} (epoch millis, defaulting to the
+     * whole history), or only the rate in force at {@code asOf} when that is given. Served from the history the
+     * node's RateHistoryService keeps in memory.
+     */
+    @GET
+    @Path("rates/{from}/{to}/history")
+    @Produces(MediaType.APPLICATION_JSON)
+    public List<RatePoint> getRateHistory(@PathParam("from") String from, @PathParam("to") String to,
+                                          @QueryParam("since") @DefaultValue("0") long since,
+                                          @QueryParam("until") @DefaultValue("9223372036854775807") long until,
+                                          @QueryParam("asOf") Long asOf) throws Exception {
+        if (!isTrader()) {
+            throw new NotAllowedException("Not a trader");
+        }
+
+        if (asOf != null) {
+            RatePoint point = services.startFlowDynamic(RateSubscriptionFlow.ReadRateAsOf.class, from, to, asOf)
+                    .getReturnValue().get(10 * 1000, TimeUnit.MILLISECONDS);
+            if (point == null) {
+                throw new NotFoundException("No rate for " + from + "/" + to + " as of " + asOf);
+            }
+            return Collections.singletonList(point);
+        }
+
+        return services.startFlowDynamic(RateSubscriptionFlow.ReadRateHistory.class, from, to, since, until)
+                .getReturnValue().get(10 * 1000, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Subscribes this node to the rates of {@code trader}, which will push every change from now on. Subscriptions
+     * are lost when either node restarts, without notice, so call this again after a restart or periodically.
+     */
+    @GET
+    @Path("rates/subscribe/{trader}")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Map<String, Integer> subscribeToRates(@PathParam("trader") String trader) throws Exception {
+        Party party = backend.get().parties.byName(trader);
+        if (party == null) {
+            throw new NotFoundException("Unknown trader " + trader);
+        }
+
+        Integer pairs = services.startFlowDynamic(RateSubscriptionFlow.Subscribe.class, party).getReturnValue().get(10 * 1000, TimeUnit.MILLISECONDS);
+        return singletonMap(trader, pairs);
+    }
+
+    /**
+     * Returns this node's copy of the rates of every trader it subscribed to, by trader and {@code FROM/TO} pair. Unlike
+     * {@link #getRates()} this works on any node and never leaves it.
+     */
+    @GET
+    @Path("rates/subscribed")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Map<String, Map<String, BigDecimal>> getSubscribedRates() throws Exception {
+        Map<String, RateSubscriptionFlow.RateBatch> subscribed = services.startFlowDynamic(RateSubscriptionFlow.ReadSubscribedRates.class)
+                .getReturnValue().get(10 * 1000, TimeUnit.MILLISECONDS);
+
+        Map<String, Map<String, BigDecimal>> result = new TreeMap<>();
+        subscribed.forEach((trader, batch) -> {
+            Map<String, BigDecimal> rates = new TreeMap<>();
+            batch.getRates().forEach((pair, scaledRate) -> rates.put(pair, RateHistory.fromScaled(scaledRate)));
+            result.put(trader, rates);
+        });
+        return result;
+    }
+
     @GET
     @Path("rates")
     @Produces(MediaType.APPLICATION_JSON)
@@ -356,7 +753,7 @@ public class ExampleApi {
             throw new NotAllowedException("Not a trader");
         }
 
-        ObjectMapper json = JacksonSupport.createNonRpcMapper();
+        ObjectMapper json = backend.get().json;
 
         try {
             Iterable<String> ratesIterator = services.getVaultTransactionNotes(SecureHash.sha256("rates"));
@@ -378,64 +775,21 @@ public class ExampleApi {
     @GET
     @Path("/identity")
     @Produces(MediaType.APPLICATION_JSON)
-    public Map<String, Object> getLegalIdentity() {
-        return ImmutableMap.of(
-                "name", services.nodeIdentity().getLegalIdentity().getName(),
-                "token", services.nodeIdentity().getLegalIdentity().getOwningKey(),
-                "PhysicalLocation", services.nodeIdentity().getPhysicalLocation(),
-                "advertisedServices", services.nodeIdentity().getAdvertisedServices(),
-                "address", services.nodeIdentity().getAddress()
-        );
+    public Response getLegalIdentity(@Context Request request, @HeaderParam(HttpHeaders.ACCEPT_ENCODING) String acceptEncoding) {
+        return backend.get().networkMap.identityResponse().toResponse(request, acceptEncoding);
     }
 
-    private void updatePeers() {
-        peers = new ArrayList<>();
-
-        peers = services.networkMapUpdates().getFirst()
-                .stream()
+    private String keyOf(String legalName) {
+        return backend.get().networkMap.getNodes().stream()
                 .map(NodeInfo::getLegalIdentity)
-                .filter(name -> !name.equals(myLegalName) && !name.equals(NOTARY_NAME))
-                .collect(toList());
-    }
-
-    private void updateIssuers() {
-        issuers = new ArrayList<>();
-        for (NodeInfo nodeInfo :
-                services.networkMapUpdates().getFirst()) {
-            for (ServiceEntry serviceEntry :
-                    nodeInfo.getAdvertisedServices()) {
-                if (serviceEntry.getInfo().getType().getId().contains("corda.issuer.")) {
-                    issuers.add(nodeInfo.getLegalIdentity());
-                }
-            }
-        }
-    }
-
-    private void updateNotaries() {
-        notaries = new ArrayList<>();
-
-        for (NodeInfo nodeInfo :
-                services.networkMapUpdates().getFirst()) {
-            for (ServiceEntry serviceEntry :
-                    nodeInfo.getAdvertisedServices()) {
-                if (serviceEntry.getInfo().getType().isNotary()) {
-                    notaries.add(nodeInfo.getNotaryIdentity());
-                }
-            }
-        }
+                .filter(party -> party.getName().equals(legalName))
+                .findFirst()
+                .orElseThrow(() -> new NotFoundException("Unknown party " + legalName))
+                .getOwningKey()
+                .toBase58String();
     }
 
     private boolean isTrader() {
-        return isTrader(services.nodeIdentity());
-    }
-
-    private boolean isTrader(NodeInfo nodeInfo) {
-        for (ServiceEntry serviceEntry : nodeInfo.getAdvertisedServices()) {
-            if (serviceEntry.getInfo().component1().getId().equals("tn.fxtrader")) {
-                return true;
-            }
-        }
-
-        return false;
+        return ExampleFlow.isTrader(backend.get().me);
     }
 }
\ No newline at end of file
@@ -0,0 +1,217 @@
+package com.example.api;
+
+import com.example.flow.ExampleFlow;
+import com.google.common.util.concurrent.ListenableFuture;
+import net.corda.core.crypto.Party;
+import net.corda.core.messaging.CordaRPCOps;
+import net.corda.core.node.NodeInfo;
+import net.corda.core.node.ServiceEntry;
+
+import javax.ws.rs.BadRequestException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Picks the trader an exchange is routed to. The receiver is asked first which currency it wants, with
+ * {@link ExampleFlow.CurrencyRequester}, as the exchange itself will ask it. Every node advertising {@code tn.fxtrader}
+ * is then asked for a quote for that currency with {@link ExampleFlow.QuoteRequester} at the same time; traders that
+ * have not answered by the deadline are left out and the lowest rate, i.e. the largest payout, wins. Answers are reused
+ * for a short while so bursts of exchanges do not turn into bursts of flows. Traders that failed to quote or missed the
+ * deadline are remembered as such for as long, so that requests in that window do not wait on them again.
+ * <p>
+ * A flow cannot be stopped over RPC, so a quote that misses the deadline keeps running. No second quote flow is
+ * started for the same trader and pair while it does; later requests wait on the one already running.
+ */
+public class ExchangeRouter {
+
+    /**
+     * {@link ExampleFlow.ExchangeResponder} prices every exchange from this currency.
+     */
+    private static final String PRICING_CURRENCY = "USD";
+
+    private static final long QUOTE_DEADLINE_MILLIS = 3 * 1000;
+    private static final long QUOTE_TTL_MILLIS = 2 * 1000;
+
+    private final CordaRPCOps services;
+    private final NetworkMapSnapshot networkMap;
+
+    private final Map<String, CachedQuote> quotes = new ConcurrentHashMap<>();
+    private final Map<String, ListenableFuture<ExampleFlow.Quote>> running = new ConcurrentHashMap<>();
+    private final Map<String, CachedCurrency> currencies = new ConcurrentHashMap<>();
+
+    public ExchangeRouter(CordaRPCOps services, NetworkMapSnapshot networkMap) {
+        this.services = services;
+        this.networkMap = networkMap;
+    }
+
+    /**
+     * @return the trader with the best quote for paying {@code receiver} in the currency it asks for, or the first
+     * trader known if the receiver names no currency or nobody quoted in time.
+     * @throws BadRequestException if there is no receiver.
+     */
+    public Party bestTrader(Party receiver) {
+        return bestTraders(receiver, 1).get(0);
+    }
+
+    /**
+     * @return up to {@code count} traders, best quote first, for paying {@code receiver} in the currency it asks for.
+     * Traders that did not quote in time come after those that did, in network map order, and only if too few quoted.
+     * @throws BadRequestException if there is no receiver.
+     */
+    public List<Party> bestTraders(Party receiver, int count) {
+        if (receiver == null) {
+            throw new BadRequestException("Unknown receiver");
+        }
+
+        List<Party> traders = networkMap.getTraders();
+        if (traders.isEmpty()) {
+            throw new IllegalStateException("No trader advertises tn.fxtrader");
+        }
+
+        List<Party> ranked = new ArrayList<>(traders);
+        String target = targetCurrency(receiver);
+        if (target != null) {
+            Map<Party, Long> quoted = collectQuotes(traders, target);
+            // Stable, so unquoted traders keep network map order.
+            ranked.sort(Comparator.comparingLong(trader -> quoted.getOrDefault(trader, Long.MAX_VALUE)));
+        }
+        return new ArrayList<>(ranked.subList(0, Math.max(1, Math.min(count, ranked.size()))));
+    }
+
+    /**
+     * The currency {@code receiver} answers {@link ExampleFlow.CurrencyResponder} with, or if it does not answer in
+     * time its {@code main.currency.XXX} service, which is what the responder falls back to.
+     */
+    private String targetCurrency(Party receiver) {
+        long now = System.currentTimeMillis();
+        CachedCurrency cached = currencies.get(receiver.getName());
+        if (cached != null && cached.expiresAt > now) {
+            return cached.currencyCode;
+        }
+
+        String currencyCode;
+        try {
+            currencyCode = services.startFlowDynamic(ExampleFlow.CurrencyRequester.class, receiver).getReturnValue()
+                    .get(QUOTE_DEADLINE_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (Exception e) {
+            System.out.println("no currency from " + receiver.getName() + ": " + e.getMessage());
+            currencyCode = mainCurrency(networkMap.getNode(receiver.getName()));
+        }
+        currencies.put(receiver.getName(), new CachedCurrency(currencyCode, System.currentTimeMillis() + QUOTE_TTL_MILLIS));
+        return currencyCode;
+    }
+
+    /**
+     * Starts a quote flow for every trader without a fresh cached quote or one already running, then waits for all of
+     * them against one shared deadline.
+     */
+    private Map<Party, Long> collectQuotes(List<Party> traders, String target) {
+        long now = System.currentTimeMillis();
+        Map<Party, Long> result = new LinkedHashMap<>();
+        Map<Party, ListenableFuture<ExampleFlow.Quote>> pending = new LinkedHashMap<>();
+
+        for (Party trader : traders) {
+            CachedQuote cached = quotes.get(cacheKey(trader, target));
+            if (cached != null && cached.expiresAt > now) {
+                if (cached.scaledRate != null) {
+                    result.put(trader, cached.scaledRate);
+                }
+                continue;
+            }
+            pending.put(trader, quote(trader, target));
+        }
+
+        long deadline = now + QUOTE_DEADLINE_MILLIS;
+        for (Map.Entry<Party, ListenableFuture<ExampleFlow.Quote>> entry : pending.entrySet()) {
+            try {
+                ExampleFlow.Quote quote = entry.getValue().get(Math.max(deadline - System.currentTimeMillis(), 0), TimeUnit.MILLISECONDS);
+                if (quote.getScaledRate() != null) {
+                    result.put(entry.getKey(), quote.getScaledRate());
+                }
+            } catch (TimeoutException e) {
+                System.out.println("dropping slow trader " + entry.getKey().getName());
+                quotes.put(cacheKey(entry.getKey(), target), new CachedQuote(null, System.currentTimeMillis() + QUOTE_TTL_MILLIS));
+            } catch (Exception e) {
+                System.out.println("no quote from " + entry.getKey().getName() + ": " + e.getMessage());
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * The quote flow running for {@code trader} and {@code target}, started if there is none. Its answer, or failure,
+     * is cached whenever it comes, and it is forgotten as running then.
+     */
+    private ListenableFuture<ExampleFlow.Quote> quote(Party trader, String target) {
+        String key = cacheKey(trader, target);
+        ListenableFuture<ExampleFlow.Quote> quote;
+        synchronized (running) {
+            quote = running.get(key);
+            if (quote != null) {
+                return quote;
+            }
+            quote = services.startFlowDynamic(ExampleFlow.QuoteRequester.class, trader, PRICING_CURRENCY, target).getReturnValue();
+            running.put(key, quote);
+        }
+
+        ListenableFuture<ExampleFlow.Quote> started = quote;
+        started.addListener(() -> {
+            Long scaledRate = null;
+            try {
+                scaledRate = started.get().getScaledRate();
+            } catch (Exception e) {
+                // Cached as no quote.
+            }
+            quotes.put(key, new CachedQuote(scaledRate, System.currentTimeMillis() + QUOTE_TTL_MILLIS));
+            running.remove(key, started);
+        }, Runnable::run);
+        return started;
+    }
+
+    /**
+     * The currency {@link ExampleFlow.CurrencyResponder} falls back to for a node, taken from its
+     * {@code main.currency.XXX} service.
+     */
+    private static String mainCurrency(NodeInfo nodeInfo) {
+        if (nodeInfo == null) {
+            return null;
+        }
+        for (ServiceEntry serviceEntry : nodeInfo.getAdvertisedServices()) {
+            String id = serviceEntry.getInfo().component1().getId();
+            if (id.contains("main.currency")) {
+                return id.split("\\.")[2];
+            }
+        }
+        return null;
+    }
+
+    private static String cacheKey(Party trader, String target) {
+        return trader.getName() + "/" + target;
+    }
+
+    /**
+     * A quote, or with a null rate the fact that the trader had none, failed or was too slow.
+     */
+    private static class CachedQuote {
+        final Long scaledRate;
+        final long expiresAt;
+
+        CachedQuote(Long scaledRate, long expiresAt) {
+            this.scaledRate = scaledRate;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private static class CachedCurrency {
+        final String currencyCode;
+        final long expiresAt;
+
+        CachedCurrency(String currencyCode, long expiresAt) {
+            this.currencyCode = currencyCode;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package com.example.api;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+import javax.ws.rs.ClientErrorException;
+import javax.ws.rs.ServiceUnavailableException;
+import javax.ws.rs.core.Response;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Function;
+
+/**
+ * Lets clients retry the flow-starting endpoints without starting the flow again. A request carrying an
+ * {@value #HEADER} header starts its flow only the first time the key is seen; retries with the same key wait on the
+ * flow already running, or get its result straight away once it has finished, failures included. Reusing a key for a
+ * different request is a 409.
+ * <p>
+ * Only the result (a tx id or the error) is kept once a flow finishes. Finished entries are evicted
+ * {@code example.idempotency.ttlMillis} (default 24 hours) after finishing, or earlier, oldest first, when more than
+ * {@code example.idempotency.maxEntries} (default 10000) keys are held. Entries of running flows are never evicted, so
+ * when that many flows are still running new keys are refused with a 503 rather than risking a duplicate.
+ */
+public class FlowResultCache {
+
+    public static final String HEADER = "Idempotency-Key";
+
+    private static final long TTL_MILLIS = Long.getLong("example.idempotency.ttlMillis", TimeUnit.HOURS.toMillis(24));
+    private static final int MAX_ENTRIES = Integer.getInteger("example.idempotency.maxEntries", 10_000);
+    private static final int MAX_KEY_LENGTH = 255;
+
+    private final Map<String, Entry> entries = new LinkedHashMap<>();
+
+    /**
+     * Starts the flow(s) with {@code start} unless {@code key} was seen before, and waits up to {@code timeoutMillis}
+     * for the result.
+     *
+     * @param request what is asked for, e.g. the endpoint and its parameters; a key can only be reused for the same
+     *                request.
+     * @param key     the client's idempotency key, or null to always start a new flow.
+     * @return the flow's result as {@code describe} renders it.
+     */
+    public <T> String run(String key, String request, Callable<ListenableFuture<T>> start, Function<T, String> describe,
+                          long timeoutMillis) throws Exception {
+        if (key == null) {
+            return describe.apply(start.call().get(timeoutMillis, TimeUnit.MILLISECONDS));
+        }
+        if (key.isEmpty() || key.length() > MAX_KEY_LENGTH) {
+            throw new IllegalArgumentException(HEADER + " must be 1 to " + MAX_KEY_LENGTH + " characters");
+        }
+
+        Entry entry;
+        boolean first = false;
+        synchronized (entries) {
+            evict(System.currentTimeMillis());
+            entry = entries.get(key);
+            if (entry == null) {
+                makeRoom();
+                entry = new Entry(request);
+                entries.put(key, entry);
+                first = true;
+            } else if (!entry.request.equals(request)) {
+                throw new ClientErrorException(HEADER + " " + key + " was used for a different request", Response.Status.CONFLICT);
+            }
+        }
+
+        if (first) {
+            ListenableFuture<T> flow;
+            try {
+                flow = start.call();
+            } catch (Exception e) {
+                // Nothing was started, so a retry may start it.
+                synchronized (entries) {
+                    entries.remove(key);
+                }
+                entry.result.completeExceptionally(e);
+                throw e;
+            }
+            entry.follow(flow, describe);
+        }
+
+        try {
+            return entry.result.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof Exception ? (Exception) cause : e;
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    private void evict(long now) {
+        entries.values().removeIf(entry -> entry.finishedAt > 0 && now - entry.finishedAt > TTL_MILLIS);
+    }
+
+    private void makeRoom() {
+        Iterator<Entry> oldest = entries.values().iterator();
+        while (entries.size() >= MAX_ENTRIES && oldest.hasNext()) {
+            if (oldest.next().finishedAt > 0) {
+                oldest.remove();
+            }
+        }
+        if (entries.size() >= MAX_ENTRIES) {
+            throw new ServiceUnavailableException("Too many idempotent requests still running");
+        }
+    }
+
+    private static class Entry {
+        final String request;
+        final CompletableFuture<String> result = new CompletableFuture<>();
+        volatile long finishedAt;
+
+        Entry(String request) {
+            this.request = request;
+            result.whenComplete((value, error) -> finishedAt = System.currentTimeMillis());
+        }
+
+        /**
+         * Completes {@link #result} when the flow does. Only the listener holds on to the flow's future, so the
+         * entry keeps nothing but the rendered result once it has finished.
+         */
+        <T> void follow(ListenableFuture<T> flow, Function<T, String> describe) {
+            flow.addListener(() -> {
+                try {
+                    result.complete(describe.apply(flow.get()));
+                } catch (ExecutionException e) {
+                    result.completeExceptionally(e.getCause());
+                } catch (Exception e) {
+                    result.completeExceptionally(e);
+                }
+            }, Runnable::run);
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package com.example.api;
+
+import com.example.flow.ExampleFlow;
+import com.example.models.PeerInfo;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableMap;
+import net.corda.core.crypto.Party;
+import net.corda.core.messaging.CordaRPCOps;
+import net.corda.core.node.NodeInfo;
+import net.corda.core.node.ServiceEntry;
+import net.corda.core.node.services.NetworkMapCache;
+import net.corda.jackson.JacksonSupport;
+
+import java.util.*;
+
+import static java.util.stream.Collectors.toList;
+
+/**
+ * The web tier's copy of the network map. It is seeded once from the shared {@link RpcFeeds#networkMap()} feed and
+ * then kept current from its updates, so the peer, trader, issuer and notary lists and their encoded JSON bodies are
+ * only rebuilt when the map actually changes.
+ */
+public class NetworkMapSnapshot {
+
+    private final String myLegalName;
+    private final String notaryName;
+    private final CordaRPCOps services;
+    private final ObjectMapper json;
+
+    private final Map<String, NodeInfo> nodes = new LinkedHashMap<>();
+
+    private volatile View view;
+
+    public NetworkMapSnapshot(CordaRPCOps services, RpcFeeds feeds, String myLegalName, String notaryName) {
+        this.services = services;
+        this.myLegalName = myLegalName;
+        this.notaryName = notaryName;
+        this.json = JacksonSupport.createDefaultMapper(services);
+
+        RpcFeeds.Feed<List<NodeInfo>, NetworkMapCache.MapChange> feed = feeds.networkMap();
+        synchronized (nodes) {
+            for (NodeInfo nodeInfo : feed.getSnapshot()) {
+                nodes.put(nodeInfo.getLegalIdentity().getName(), nodeInfo);
+            }
+            rebuild();
+        }
+
+        feed.getUpdates().subscribe(this::apply, error -> System.out.println("network map feed failed: " + error.getMessage()));
+    }
+
+    public List<NodeInfo> getNodes() {
+        return view.nodes;
+    }
+
+    public List<Party> getPeers() {
+        return view.peers;
+    }
+
+    public List<Party> getIssuers() {
+        return view.issuers;
+    }
+
+    public List<Party> getNotaries() {
+        return view.notaries;
+    }
+
+    public List<Party> getTraders() {
+        return view.traders;
+    }
+
+    public NodeInfo getNode(String legalName) {
+        for (NodeInfo nodeInfo : view.nodes) {
+            if (nodeInfo.getLegalIdentity().getName().equals(legalName)) {
+                return nodeInfo;
+            }
+        }
+        return null;
+    }
+
+    public EncodedResponse peersResponse() {
+        return view.peersResponse;
+    }
+
+    public EncodedResponse tradersResponse() {
+        return view.tradersResponse;
+    }
+
+    public EncodedResponse issuersResponse() {
+        return view.issuersResponse;
+    }
+
+    public EncodedResponse notariesResponse() {
+        return view.notariesResponse;
+    }
+
+    public EncodedResponse identityResponse() {
+        return view.identityResponse;
+    }
+
+    private void apply(NetworkMapCache.MapChange change) {
+        NodeInfo node = change.getNode();
+        synchronized (nodes) {
+            if (change.getType() == NetworkMapCache.MapChangeType.Removed) {
+                nodes.remove(node.getLegalIdentity().getName());
+            } else {
+                nodes.put(node.getLegalIdentity().getName(), node);
+            }
+            rebuild();
+        }
+    }
+
+    private void rebuild() {
+        List<NodeInfo> all = Collections.unmodifiableList(new ArrayList<>(nodes.values()));
+
+        List<Party> peers = all.stream()
+                .map(NodeInfo::getLegalIdentity)
+                .filter(party -> !party.getName().equals(myLegalName) && !party.getName().equals(notaryName))
+                .collect(toList());
+
+        List<Party> issuers = new ArrayList<>();
+        List<Party> notaries = new ArrayList<>();
+        for (NodeInfo nodeInfo : all) {
+            boolean issuer = false;
+            boolean notary = false;
+            for (ServiceEntry serviceEntry : nodeInfo.getAdvertisedServices()) {
+                issuer |= serviceEntry.getInfo().getType().getId().contains("corda.issuer.");
+                notary |= serviceEntry.getInfo().getType().isNotary();
+            }
+            // Once per node, however many currencies it issues.
+            if (issuer) {
+                issuers.add(nodeInfo.getLegalIdentity());
+            }
+            if (notary) {
+                notaries.add(nodeInfo.getNotaryIdentity());
+            }
+        }
+
+        List<PeerInfo> peerInfos = all.stream()
+                .filter(peer -> !peer.getLegalIdentity().getName().equals(myLegalName)
+                        && !peer.getLegalIdentity().getName().equals(notaryName))
+                .map(NetworkMapSnapshot::toPeerInfo)
+                .collect(toList());
+
+        List<NodeInfo> traderNodes = all.stream()
+                .filter(peer -> !peer.getLegalIdentity().getName().equals(notaryName) && ExampleFlow.isTrader(peer))
+                .collect(toList());
+        List<PeerInfo> traderInfos = traderNodes.stream().map(NetworkMapSnapshot::toPeerInfo).collect(toList());
+
+        NodeInfo me = nodes.containsKey(myLegalName) ? nodes.get(myLegalName) : services.nodeIdentity();
+        Map<String, Object> identity = ImmutableMap.of(
+                "name", me.getLegalIdentity().getName(),
+                "token", me.getLegalIdentity().getOwningKey(),
+                "PhysicalLocation", me.getPhysicalLocation(),
+                "advertisedServices", me.getAdvertisedServices(),
+                "address", me.getAddress()
+        );
+
+        view = new View(
+                all,
+                Collections.unmodifiableList(peers),
+                Collections.unmodifiableList(issuers),
+                Collections.unmodifiableList(notaries),
+                Collections.unmodifiableList(traderNodes.stream().map(NodeInfo::getLegalIdentity).collect(toList())),
+                EncodedResponse.of(json, peerInfos),
+                EncodedResponse.of(json, traderInfos),
+                EncodedResponse.of(json, issuers.stream().map(Party::getName).collect(toList())),
+                EncodedResponse.of(json, notaries),
+                EncodedResponse.of(json, identity)
+        );
+    }
+
+    private static PeerInfo toPeerInfo(NodeInfo nodeInfo) {
+        return new PeerInfo(nodeInfo.getLegalIdentity().getName(),
+                nodeInfo.getAddress(),
+                nodeInfo.getPhysicalLocation(),
+                nodeInfo.getAdvertisedServices()
+        );
+    }
+
+    private static class View {
+        final List<NodeInfo> nodes;
+        final List<Party> peers;
+        final List<Party> issuers;
+        final List<Party> notaries;
+        final List<Party> traders;
+        final EncodedResponse peersResponse;
+        final EncodedResponse tradersResponse;
+        final EncodedResponse issuersResponse;
+        final EncodedResponse notariesResponse;
+        final EncodedResponse identityResponse;
+
+        View(List<NodeInfo> nodes, List<Party> peers, List<Party> issuers, List<Party> notaries, List<Party> traders,
+             EncodedResponse peersResponse, EncodedResponse tradersResponse, EncodedResponse issuersResponse,
+             EncodedResponse notariesResponse, EncodedResponse identityResponse) {
+            this.nodes = nodes;
+            this.peers = peers;
+            this.issuers = issuers;
+            this.notaries = notaries;
+            this.traders = traders;
+            this.peersResponse = peersResponse;
+            this.tradersResponse = tradersResponse;
+            this.issuersResponse = issuersResponse;
+            this.notariesResponse = notariesResponse;
+            this.identityResponse = identityResponse;
+        }
+    }
+}
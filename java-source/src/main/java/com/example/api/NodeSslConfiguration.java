@@ -0,0 +1,53 @@
+package com.example.api;
+
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import net.corda.node.services.config.SSLConfiguration;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * The SSL settings of the node this web server fronts, for RPC connections of its own. The web server runs in the
+ * node's directory (or {@code example.node.dir}), so the key and trust stores are the node's {@code certificates} and
+ * their passwords come from its {@code node.conf}, with the node's defaults where it does not set them.
+ */
+class NodeSslConfiguration implements SSLConfiguration {
+
+    private final Path certificatesDirectory;
+    private final String keyStorePassword;
+    private final String trustStorePassword;
+
+    NodeSslConfiguration() {
+        Path nodeDirectory = Paths.get(System.getProperty("example.node.dir", ".")).toAbsolutePath();
+        Config config = ConfigFactory.parseFile(nodeDirectory.resolve("node.conf").toFile());
+        this.certificatesDirectory = nodeDirectory.resolve("certificates");
+        this.keyStorePassword = config.hasPath("keyStorePassword") ? config.getString("keyStorePassword") : "cordacadevpass";
+        this.trustStorePassword = config.hasPath("trustStorePassword") ? config.getString("trustStorePassword") : "trustpass";
+    }
+
+    @Override
+    public String getKeyStorePassword() {
+        return keyStorePassword;
+    }
+
+    @Override
+    public String getTrustStorePassword() {
+        return trustStorePassword;
+    }
+
+    @Override
+    public Path getCertificatesDirectory() {
+        return certificatesDirectory;
+    }
+
+    @Override
+    public Path getKeyStoreFile() {
+        return certificatesDirectory.resolve("sslkeystore.jks");
+    }
+
+    @Override
+    public Path getTrustStoreFile() {
+        return certificatesDirectory.resolve("truststore.jks");
+    }
+}
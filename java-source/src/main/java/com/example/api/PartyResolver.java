@@ -0,0 +1,115 @@
+package com.example.api;
+
+import net.corda.core.crypto.CompositeKey;
+import net.corda.core.crypto.Party;
+import net.corda.core.messaging.CordaRPCOps;
+import net.corda.core.node.NodeInfo;
+import net.corda.core.node.services.NetworkMapCache;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Resolves legal names and Base58 keys to parties without going to the node for every request. It is seeded with the
+ * legal identity of every node in the shared {@link RpcFeeds#networkMap()} feed and kept current from its updates;
+ * anything else is looked up over RPC once and cached.
+ * <p>
+ * Names the node does not know are remembered as unknown for {@code example.parties.negativeTtlMillis} (default
+ * 5000), or until a node of that name joins the network map, so a client retrying with a wrong name does not cost an
+ * RPC per retry. At most {@code example.parties.maxUnknown} (default 10000) unknown names are kept.
+ */
+public class PartyResolver {
+
+    private static final long NEGATIVE_TTL_MILLIS = Long.getLong("example.parties.negativeTtlMillis", 5_000L);
+    private static final int MAX_UNKNOWN = Integer.getInteger("example.parties.maxUnknown", 10_000);
+
+    private final CordaRPCOps services;
+
+    private final Map<String, Party> byName = new ConcurrentHashMap<>();
+    private final Map<String, Party> byKey = new ConcurrentHashMap<>();
+    private final Map<String, Long> unknownUntil = new ConcurrentHashMap<>();
+
+    public PartyResolver(CordaRPCOps services, RpcFeeds feeds) {
+        this.services = services;
+
+        RpcFeeds.Feed<List<NodeInfo>, NetworkMapCache.MapChange> feed = feeds.networkMap();
+        for (NodeInfo nodeInfo : feed.getSnapshot()) {
+            add(nodeInfo.getLegalIdentity());
+        }
+
+        feed.getUpdates().subscribe(this::apply, error -> System.out.println("party resolver feed failed: " + error.getMessage()));
+    }
+
+    /**
+     * @return the party with legal name {@code name}, or null if the node does not know it.
+     */
+    public Party byName(String name) {
+        Party party = byName.get(name);
+        if (party != null) {
+            return party;
+        }
+
+        Long until = unknownUntil.get(name);
+        if (until != null && until > System.currentTimeMillis()) {
+            return null;
+        }
+
+        party = services.partyFromName(name);
+        if (party == null) {
+            rememberUnknown(name);
+        } else {
+            unknownUntil.remove(name);
+            add(party);
+        }
+        return party;
+    }
+
+    /**
+     * @return the party owning the Base58 encoded {@code key}, or null if the node does not know it. The key is only
+     * parsed when it is not cached.
+     */
+    public Party byKey(String key) {
+        Party party = byKey.get(key);
+        if (party != null) {
+            return party;
+        }
+
+        party = services.partyFromKey(CompositeKey.Companion.parseFromBase58(key));
+        if (party != null) {
+            add(party);
+        }
+        return party;
+    }
+
+    private void apply(NetworkMapCache.MapChange change) {
+        Party party = change.getNode().getLegalIdentity();
+        if (change.getType() == NetworkMapCache.MapChangeType.Removed) {
+            byName.remove(party.getName(), party);
+            byKey.remove(party.getOwningKey().toBase58String(), party);
+        } else {
+            Party previous = byName.get(party.getName());
+            if (previous != null && !previous.equals(party)) {
+                byKey.remove(previous.getOwningKey().toBase58String(), previous);
+            }
+            unknownUntil.remove(party.getName());
+            add(party);
+        }
+    }
+
+    private void add(Party party) {
+        byName.put(party.getName(), party);
+        byKey.put(party.getOwningKey().toBase58String(), party);
+    }
+
+    private void rememberUnknown(String name) {
+        long now = System.currentTimeMillis();
+        if (unknownUntil.size() >= MAX_UNKNOWN) {
+            unknownUntil.values().removeIf(until -> until <= now);
+            if (unknownUntil.size() >= MAX_UNKNOWN) {
+                unknownUntil.clear();
+            }
+        }
+        unknownUntil.put(name, now + NEGATIVE_TTL_MILLIS);
+    }
+}
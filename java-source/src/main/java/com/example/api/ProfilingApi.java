@@ -0,0 +1,187 @@
+package com.example.api;
+
+import com.example.flow.FlightRecorder;
+import com.example.flow.ProfilingFlow;
+import com.google.common.net.HostAndPort;
+import net.corda.core.messaging.CordaRPCOps;
+import net.corda.node.services.messaging.ArtemisMessagingComponent;
+import net.corda.node.services.messaging.CordaRPCClient;
+
+import javax.ws.rs.*;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Java Flight Recorder sessions on demand, in the node ({@code node}) or in this web server ({@code webserver}). See
+ * {@link FlightRecorder} for the {@code cpu}, {@code allocation} and {@code locks} presets.
+ * <p>
+ * Every call needs HTTP Basic credentials of one of the node's RPC users. They are used to log in to the node over
+ * RPC, and the user must be allowed to start {@link ProfilingFlow.Authorize}; node recordings are then driven through
+ * the other {@link ProfilingFlow}s as that user. The RPC address is taken from the node's identity unless
+ * {@code example.rpc.address} is set, and the connection uses the node's own SSL settings, see
+ * {@link NodeSslConfiguration}. Deployments only have such a user when deployNodes is given -PadminUser and
+ * -PadminPassword.
+ */
+// This API is accessible from /api/profiling. All paths specified below are relative to it.
+@Path("profiling")
+public class ProfilingApi {
+
+    private static final String NODE = "node";
+    private static final String WEBSERVER = "webserver";
+
+    private final CordaRPCOps services;
+    private final NodeSslConfiguration ssl = new NodeSslConfiguration();
+
+    public ProfilingApi(CordaRPCOps services) {
+        this.services = services;
+    }
+
+    @PUT
+    @Path("{target}/start/{preset}")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Map<String, Object> start(@PathParam("target") String target, @PathParam("preset") String preset,
+                                     @HeaderParam(HttpHeaders.AUTHORIZATION) String authorization) {
+        return asAdmin(authorization, admin -> {
+            long id = isNode(target)
+                    ? admin.startFlowDynamic(ProfilingFlow.Start.class, preset).getReturnValue().get(10, TimeUnit.SECONDS)
+                    : FlightRecorder.start(preset);
+            return recording(target, id, null);
+        });
+    }
+
+    @PUT
+    @Path("{target}/stop/{id}")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Map<String, Object> stop(@PathParam("target") String target, @PathParam("id") long id,
+                                    @HeaderParam(HttpHeaders.AUTHORIZATION) String authorization) {
+        return asAdmin(authorization, admin -> {
+            String file = isNode(target)
+                    ? admin.startFlowDynamic(ProfilingFlow.Stop.class, id).getReturnValue().get(30, TimeUnit.SECONDS)
+                    : FlightRecorder.stop(id).toString();
+            return recording(target, id, file);
+        });
+    }
+
+    /**
+     * The recordings started in this web server; node recordings are only known by the ids returned on start.
+     */
+    @GET
+    @Path("webserver/recordings")
+    @Produces(MediaType.APPLICATION_JSON)
+    public List<Map<String, Object>> list(@HeaderParam(HttpHeaders.AUTHORIZATION) String authorization) {
+        return asAdmin(authorization, admin -> FlightRecorder.list());
+    }
+
+    /**
+     * The .jfr file of a stopped recording, for JDK Mission Control.
+     */
+    @GET
+    @Path("{target}/recordings/{id}")
+    @Produces(MediaType.APPLICATION_OCTET_STREAM)
+    public Response fetch(@PathParam("target") String target, @PathParam("id") long id,
+                          @HeaderParam(HttpHeaders.AUTHORIZATION) String authorization) {
+        byte[] recording = asAdmin(authorization, admin -> isNode(target)
+                ? admin.startFlowDynamic(ProfilingFlow.Fetch.class, id).getReturnValue().get(60, TimeUnit.SECONDS)
+                : Files.readAllBytes(FlightRecorder.file(id)));
+        return Response.ok(recording)
+                .header("Content-Disposition", "attachment; filename=\"" + target + "-" + id + ".jfr\"")
+                .build();
+    }
+
+    /**
+     * The frames in the CorDapp's packages that the events of a stopped recording are attributed to, heaviest first.
+     */
+    @GET
+    @Path("{target}/recordings/{id}/top")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Map<String, Long> topFrames(@PathParam("target") String target, @PathParam("id") long id,
+                                       @QueryParam("limit") @DefaultValue("20") int limit,
+                                       @HeaderParam(HttpHeaders.AUTHORIZATION) String authorization) {
+        return asAdmin(authorization, admin -> isNode(target)
+                ? admin.startFlowDynamic(ProfilingFlow.TopFrames.class, id, limit).getReturnValue().get(60, TimeUnit.SECONDS)
+                : FlightRecorder.topFrames(id, limit));
+    }
+
+    private interface AdminCall<T> {
+        T call(CordaRPCOps admin) throws Exception;
+    }
+
+    /**
+     * Logs in to the node as the user of the Basic {@code authorization}, checks that it may profile, and runs
+     * {@code call} with its connection.
+     */
+    private <T> T asAdmin(String authorization, AdminCall<T> call) {
+        String[] credentials = basicCredentials(authorization);
+
+        CordaRPCClient client = new CordaRPCClient(rpcAddress(), ssl);
+        try {
+            try {
+                client.start(credentials[0], credentials[1]);
+            } catch (Exception e) {
+                throw new NotAuthorizedException("Unknown RPC user or wrong password", "Basic realm=\"node\"");
+            }
+
+            CordaRPCOps admin = client.proxy();
+            try {
+                admin.startFlowDynamic(ProfilingFlow.Authorize.class).getReturnValue().get(10, TimeUnit.SECONDS);
+            } catch (Exception e) {
+                throw new ForbiddenException("RPC user " + credentials[0] + " may not profile: " + e.getMessage());
+            }
+
+            return call.call(admin);
+        } catch (WebApplicationException e) {
+            throw e;
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            throw new BadRequestException(e.getMessage());
+        } catch (Exception e) {
+            throw new InternalServerErrorException(e.getMessage(), e);
+        } finally {
+            client.close();
+        }
+    }
+
+    private static String[] basicCredentials(String authorization) {
+        if (authorization == null || !authorization.startsWith("Basic ")) {
+            throw new NotAuthorizedException("RPC user credentials required", "Basic realm=\"node\"");
+        }
+        String decoded = new String(Base64.getDecoder().decode(authorization.substring("Basic ".length()).trim()), StandardCharsets.UTF_8);
+        int colon = decoded.indexOf(':');
+        if (colon < 0) {
+            throw new NotAuthorizedException("Malformed credentials", "Basic realm=\"node\"");
+        }
+        return new String[]{decoded.substring(0, colon), decoded.substring(colon + 1)};
+    }
+
+    private HostAndPort rpcAddress() {
+        String configured = System.getProperty("example.rpc.address");
+        if (configured != null) {
+            return HostAndPort.fromString(configured);
+        }
+        return ((ArtemisMessagingComponent.ArtemisPeerAddress) services.nodeIdentity().getAddress()).getHostAndPort();
+    }
+
+    private static boolean isNode(String target) {
+        if (NODE.equals(target)) {
+            return true;
+        }
+        if (WEBSERVER.equals(target)) {
+            return false;
+        }
+        throw new NotFoundException("Unknown target " + target + ", expected " + NODE + " or " + WEBSERVER);
+    }
+
+    private static Map<String, Object> recording(String target, long id, String file) {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("target", target);
+        result.put("id", id);
+        if (file != null) {
+            result.put("file", file);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,175 @@
+package com.example.api;
+
+import kotlin.Pair;
+import net.corda.core.contracts.ContractState;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.messaging.CordaRPCOps;
+import net.corda.core.node.NodeInfo;
+import net.corda.core.node.services.NetworkMapCache;
+import net.corda.core.node.services.Vault;
+import net.corda.core.transactions.SignedTransaction;
+import rx.Observable;
+import rx.Subscription;
+import rx.observables.ConnectableObservable;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Owns the web tier's snapshot-and-updates RPC feeds. Every {@link Observable} handed out by the node keeps it
+ * buffering updates for us until it is unsubscribed, so each feed is opened over RPC once and shared: consumers wire
+ * themselves to a {@link Feed} while the web API is being built, then {@link #connect()} makes the single upstream
+ * subscription per feed. The RPC client holds back updates until then, so no consumer misses one between the
+ * snapshot and its subscription.
+ * <p>
+ * {@link #close()} releases every upstream subscription. Whoever creates the feeds closes them: the web API does so
+ * when the web server shuts it down.
+ */
+public class RpcFeeds implements AutoCloseable {
+
+    private final CordaRPCOps services;
+    private final Map<String, Feed<?, ?>> feeds = new LinkedHashMap<>();
+
+    private boolean connected;
+    private boolean closed;
+
+    public RpcFeeds(CordaRPCOps services) {
+        this.services = services;
+    }
+
+    public Feed<List<NodeInfo>, NetworkMapCache.MapChange> networkMap() {
+        return feed("networkMap", services::networkMapUpdates);
+    }
+
+    public Feed<List<StateAndRef<ContractState>>, Vault.Update> vault() {
+        return feed("vault", services::vaultAndUpdates);
+    }
+
+    public Feed<List<SignedTransaction>, SignedTransaction> transactions() {
+        return feed("transactions", services::verifiedTransactions);
+    }
+
+    @SuppressWarnings("unchecked")
+    synchronized <S, U> Feed<S, U> feed(String name, Supplier<Pair<S, Observable<U>>> open) {
+        if (closed) {
+            throw new IllegalStateException("RPC feeds are closed");
+        }
+        Feed<S, U> feed = (Feed<S, U>) feeds.get(name);
+        if (feed == null) {
+            if (connected) {
+                throw new IllegalStateException("Feed " + name + " requested after the feeds were connected");
+            }
+            feed = new Feed<>(open.get());
+            feeds.put(name, feed);
+        }
+        return feed;
+    }
+
+    /**
+     * Makes the upstream subscription of every feed and drops the snapshots, which consumers have copied by now.
+     */
+    public synchronized void connect() {
+        if (connected || closed) {
+            return;
+        }
+        connected = true;
+        feeds.values().forEach(Feed::connect);
+    }
+
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        feeds.values().forEach(Feed::release);
+    }
+
+    /**
+     * Per feed: whether it is connected, how many consumers are subscribed and how many updates it delivered.
+     */
+    public synchronized Map<String, Object> report() {
+        Map<String, Object> report = new LinkedHashMap<>();
+        feeds.forEach((name, feed) -> {
+            Map<String, Object> stats = new LinkedHashMap<>();
+            stats.put("connected", feed.isConnected());
+            stats.put("subscribers", feed.getSubscribers());
+            stats.put("updates", feed.getUpdateCount());
+            report.put(name, stats);
+        });
+        return report;
+    }
+
+    /**
+     * One RPC feed: the snapshot it opened with, available until the feeds are connected, and the shared update stream.
+     */
+    public static class Feed<S, U> {
+
+        private final Observable<U> upstream;
+        private final ConnectableObservable<U> shared;
+        private final AtomicInteger subscribers = new AtomicInteger();
+        private final AtomicLong updates = new AtomicLong();
+
+        private volatile S snapshot;
+        private volatile Subscription connection;
+        private volatile boolean released;
+
+        Feed(Pair<S, Observable<U>> feed) {
+            this.snapshot = feed.getFirst();
+            this.upstream = feed.getSecond();
+            this.shared = upstream
+                    .doOnNext(update -> updates.incrementAndGet())
+                    .publish();
+        }
+
+        public S getSnapshot() {
+            S current = snapshot;
+            if (current == null) {
+                throw new IllegalStateException("The snapshot is only available until the feeds are connected");
+            }
+            return current;
+        }
+
+        public Observable<U> getUpdates() {
+            return shared
+                    .doOnSubscribe(subscribers::incrementAndGet)
+                    .doOnUnsubscribe(subscribers::decrementAndGet);
+        }
+
+        public boolean isConnected() {
+            Subscription current = connection;
+            return current != null && !current.isUnsubscribed();
+        }
+
+        int getSubscribers() {
+            return subscribers.get();
+        }
+
+        long getUpdateCount() {
+            return updates.get();
+        }
+
+        private synchronized void connect() {
+            if (!released && connection == null) {
+                connection = shared.connect();
+            }
+            snapshot = null;
+        }
+
+        private synchronized void release() {
+            released = true;
+            snapshot = null;
+            if (connection != null) {
+                connection.unsubscribe();
+            } else {
+                // Never connected: subscribing and unsubscribing straight away is how the RPC client is told the
+                // Observable is not wanted.
+                upstream.subscribe(update -> {
+                }, error -> {
+                }).unsubscribe();
+            }
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package com.example.api;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
+import kotlin.Pair;
+import net.corda.core.messaging.CordaRPCOps;
+import net.corda.core.messaging.FlowHandle;
+import rx.Observable;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records what the web APIs ask of the node. {@link #instrument(CordaRPCOps)} wraps the proxy handed to a web API so
+ * that every call is timed and counted per RPC method, the number of elements it returned is recorded (the size of
+ * collections, the snapshot half of a snapshot-and-updates pair, one for anything else; not bytes), and every
+ * {@link Observable} handed back, whether on its own, in a snapshot-and-updates pair or as the progress of a
+ * {@link FlowHandle}, is counted and wrapped to track how many are subscribed: those keep the node buffering updates
+ * until they are unsubscribed. Each call is also attributed to the web API endpoint it was made from.
+ * <p>
+ * The numbers are served by {@link RpcMetricsApi}.
+ */
+public class RpcMetrics {
+
+    private final MetricRegistry metrics = new MetricRegistry();
+
+    public CordaRPCOps instrument(CordaRPCOps services) {
+        return (CordaRPCOps) Proxy.newProxyInstance(
+                CordaRPCOps.class.getClassLoader(),
+                new Class<?>[]{CordaRPCOps.class},
+                (proxy, method, args) -> {
+                    if (method.getDeclaringClass() == Object.class) {
+                        return method.invoke(services, args);
+                    }
+
+                    String endpoint = callingEndpoint();
+                    Timer.Context time = metrics.timer(MetricRegistry.name("rpc", method.getName())).time();
+                    Object result;
+                    try {
+                        result = method.invoke(services, args);
+                    } catch (InvocationTargetException e) {
+                        metrics.counter(MetricRegistry.name("rpc", method.getName(), "errors")).inc();
+                        throw e.getCause();
+                    } finally {
+                        long nanos = time.stop();
+                        metrics.timer(MetricRegistry.name("endpoint", endpoint, method.getName())).update(nanos, TimeUnit.NANOSECONDS);
+                    }
+
+                    metrics.histogram(MetricRegistry.name("rpc", method.getName(), "elements")).update(elementCount(result));
+                    return wrapObservables(method.getName(), result);
+                });
+    }
+
+    @SuppressWarnings("unchecked")
+    private Object wrapObservables(String method, Object result) {
+        if (result instanceof Observable) {
+            return track(method, (Observable<Object>) result);
+        }
+        if (result instanceof Pair && ((Pair) result).getSecond() instanceof Observable) {
+            Pair<Object, Observable<Object>> pair = (Pair<Object, Observable<Object>>) result;
+            return new Pair<>(pair.getFirst(), track(method, pair.getSecond()));
+        }
+        if (result instanceof FlowHandle) {
+            FlowHandle<Object> handle = (FlowHandle<Object>) result;
+            return new FlowHandle<>(handle.getId(), track(method, handle.getProgress()), handle.getReturnValue());
+        }
+        return result;
+    }
+
+    private <T> Observable<T> track(String method, Observable<T> observable) {
+        metrics.counter(MetricRegistry.name("rpc", method, "observables")).inc();
+        Counter subscribed = metrics.counter(MetricRegistry.name("rpc", method, "subscribed"));
+        return observable.doOnSubscribe(subscribed::inc).doOnUnsubscribe(subscribed::dec);
+    }
+
+    /**
+     * Per RPC method: calls, errors, latency in milliseconds, elements returned, and Observables handed out and still
+     * subscribed. Per endpoint:
+     * calls and total milliseconds spent in each RPC method.
+     */
+    public Map<String, Object> report() {
+        Map<String, Map<String, Object>> methods = new TreeMap<>();
+        Map<String, Map<String, Object>> endpoints = new TreeMap<>();
+
+        for (Map.Entry<String, Timer> entry : metrics.getTimers().entrySet()) {
+            String[] name = entry.getKey().split("\\.");
+            Timer timer = entry.getValue();
+            Snapshot latency = timer.getSnapshot();
+
+            if (name[0].equals("rpc")) {
+                String method = name[1];
+                Map<String, Object> stats = new LinkedHashMap<>();
+                stats.put("calls", timer.getCount());
+                stats.put("errors", count(metrics.getCounters().get(MetricRegistry.name("rpc", method, "errors"))));
+                stats.put("meanMillis", latency.getMean() / 1e6);
+                stats.put("p99Millis", latency.get99thPercentile() / 1e6);
+                Histogram elements = metrics.getHistograms().get(MetricRegistry.name("rpc", method, "elements"));
+                stats.put("meanElements", elements == null ? 0 : elements.getSnapshot().getMean());
+                stats.put("observables", count(metrics.getCounters().get(MetricRegistry.name("rpc", method, "observables"))));
+                stats.put("subscribed", count(metrics.getCounters().get(MetricRegistry.name("rpc", method, "subscribed"))));
+                methods.put(method, stats);
+            } else {
+                Map<String, Object> stats = new LinkedHashMap<>();
+                stats.put("calls", timer.getCount());
+                stats.put("totalMillis", latency.getMean() * timer.getCount() / 1e6);
+                endpoints.computeIfAbsent(name[1], endpoint -> new TreeMap<>()).put(name[2], stats);
+            }
+        }
+
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("methods", methods);
+        report.put("endpoints", endpoints);
+        return report;
+    }
+
+    private static long count(Counter counter) {
+        return counter == null ? 0 : counter.getCount();
+    }
+
+    private static long elementCount(Object result) {
+        if (result instanceof Pair) {
+            return elementCount(((Pair) result).getFirst());
+        }
+        if (result instanceof Collection) {
+            return ((Collection) result).size();
+        }
+        if (result instanceof Map) {
+            return ((Map) result).size();
+        }
+        return result == null ? 0 : 1;
+    }
+
+    /**
+     * The outermost method of a web API class on the calling stack, i.e. the resource method Jersey invoked, or "other"
+     * for calls made outside a request.
+     */
+    private static String callingEndpoint() {
+        StackTraceElement[] stack = Thread.currentThread().getStackTrace();
+        for (int i = stack.length - 1; i >= 0; i--) {
+            StackTraceElement frame = stack[i];
+            if (frame.getClassName().startsWith("com.example.api.") && !frame.getClassName().startsWith(RpcMetrics.class.getName())
+                    && !frame.getMethodName().startsWith("lambda$")) {
+                return frame.getClassName().substring("com.example.api.".length()) + "#" + frame.getMethodName();
+            }
+        }
+        return "other";
+    }
+}
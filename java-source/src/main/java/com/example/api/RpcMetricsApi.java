@@ -0,0 +1,25 @@
+package com.example.api;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import java.util.Map;
+
+// This API is accessible from /api/metrics. All paths specified below are relative to it.
+@Path("metrics")
+public class RpcMetricsApi {
+
+    private final RpcMetrics rpcMetrics;
+
+    public RpcMetricsApi(RpcMetrics rpcMetrics) {
+        this.rpcMetrics = rpcMetrics;
+    }
+
+    @GET
+    @Path("rpc")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Map<String, Object> getRpcMetrics() {
+        return rpcMetrics.report();
+    }
+}
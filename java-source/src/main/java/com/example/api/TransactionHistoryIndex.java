@@ -0,0 +1,467 @@
+package com.example.api;
+
+import com.example.models.HistoryEntry;
+import net.corda.core.contracts.*;
+import net.corda.core.crypto.CompositeKey;
+import net.corda.core.crypto.SecureHash;
+import net.corda.core.transactions.SignedTransaction;
+import net.corda.core.transactions.WireTransaction;
+
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * An on-disk index of every transaction the node has verified, by party key and currency, so that history queries
+ * ("everything touching party X in currency Y last month") do not have to replay the ledger.
+ * <p>
+ * It tails the shared {@link RpcFeeds#transactions()} feed and appends one fixed-size record per transaction, key
+ * and currency to a memory-mapped file in {@code example.history.dir} (default {@code history-index}, next to the
+ * node). The record count in the file header is only moved past records once they are written, so after a restart
+ * the index resumes from there: transactions of the RPC snapshot that are already on disk are skipped. The posting
+ * lists, kept in time order, are rebuilt from the records on start, which is a sequential scan of the mapped file.
+ * <p>
+ * Records are timed by the transaction's own timestamp. The cash issue and move transactions of this CorDapp carry
+ * none, so transactions that arrive on the live feed are timed by their arrival instead, which is persisted with the
+ * record. Only transactions backfilled from the RPC snapshot without a timestamp are recorded without a time: they
+ * only match queries without a time range, where they come first, and their entries have no timestamp. New key
+ * dictionary entries are forced to disk before any record refers to them.
+ * <p>
+ * The parties of a transaction are the participants of its outputs and the signers of its commands; its currencies
+ * are those of its fungible outputs. Inputs are not resolved, so a party that only spends shows up through its
+ * signature on the move command.
+ */
+public class TransactionHistoryIndex implements Closeable {
+
+    private static final int MAGIC = 0x54584849;
+    // Version 1 stamped untimed transactions with the time they were indexed; those files are rebuilt.
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 64;
+    private static final int RECORD_SIZE = 64;
+    private static final int INITIAL_CAPACITY = 16 * 1024;
+
+    // Record layout.
+    private static final int TIME = 0;
+    private static final int HASH = 8;
+    private static final int KEY = 40;
+    private static final int CURRENCY = 44;
+    private static final int QUANTITY = 48;
+    private static final int FLAGS = 56;
+
+    // Set on the first record of each transaction and currency, which is what the currency and global lists point at.
+    private static final int FIRST = 1;
+    private static final int NO_KEY = -1;
+    // The time of transactions without a timestamp, which sorts before every real time.
+    private static final long NO_TIME = Long.MIN_VALUE;
+
+    private final FileChannel records;
+    private final RandomAccessFile keyFile;
+    private MappedByteBuffer buffer;
+
+    private final List<String> keys = new ArrayList<>();
+    private final Map<String, Integer> keyIds = new HashMap<>();
+    private final Set<SecureHash> indexed = new HashSet<>();
+
+    private final Map<Integer, Postings> byKey = new HashMap<>();
+    private final Map<Integer, Postings> byCurrency = new HashMap<>();
+    private final Postings all = new Postings();
+    private final Postings none = new Postings();
+
+    private long count;
+    private boolean keysUnsynced;
+
+    public TransactionHistoryIndex(RpcFeeds feeds) throws IOException {
+        this(Paths.get(System.getProperty("example.history.dir", "history-index")), feeds);
+    }
+
+    TransactionHistoryIndex(Path directory, RpcFeeds feeds) throws IOException {
+        Files.createDirectories(directory);
+        this.keyFile = new RandomAccessFile(directory.resolve("keys.dat").toFile(), "rw");
+        this.records = FileChannel.open(directory.resolve("records.dat"), CREATE, READ, WRITE);
+
+        synchronized (this) {
+            loadKeys();
+            loadRecords();
+
+            if (feeds != null) {
+                RpcFeeds.Feed<List<SignedTransaction>, SignedTransaction> feed = feeds.transactions();
+                long before = count;
+                for (SignedTransaction tx : feed.getSnapshot()) {
+                    add(tx, NO_TIME);
+                }
+                buffer.force();
+                System.out.println("history index: " + (count - before) + " new records, " + count + " in total");
+
+                feed.getUpdates().subscribe(this::addAndForce, error -> System.out.println("transaction feed failed: " + error.getMessage()));
+            }
+        }
+    }
+
+    /**
+     * Returns the transactions, one entry per currency, that touched {@code partyKey} (Base58, or null for any) in
+     * {@code currency} (or null for any) with a timestamp in {@code [since, until]}, oldest first. A range of
+     * {@code [0, Long.MAX_VALUE]} or wider is no time range at all, and also returns the transactions without a
+     * timestamp, ahead of the others.
+     */
+    public synchronized List<HistoryEntry> query(String partyKey, String currency, long since, long until, int offset, int limit) {
+        int currencyCode = currency == null ? 0 : packCurrency(currency);
+        Integer keyId = null;
+
+        // A party's list holds every record of the party; the other lists only the first record of each transaction
+        // and currency, so each entry comes up once whichever list is walked.
+        Postings postings = all;
+        if (partyKey != null) {
+            keyId = keyIds.get(partyKey);
+            if (keyId == null) {
+                return Collections.emptyList();
+            }
+            postings = byKey.getOrDefault(keyId, none);
+        }
+        if (currency != null) {
+            Postings forCurrency = byCurrency.getOrDefault(currencyCode, none);
+            if (keyId == null || forCurrency.size() < postings.size()) {
+                postings = forCurrency;
+            }
+        }
+        boolean checkKey = keyId != null && postings != byKey.get(keyId);
+
+        List<HistoryEntry> result = new ArrayList<>();
+        int skipped = 0;
+        boolean timeRange = since > 0 || until < Long.MAX_VALUE;
+        int start = timeRange ? postings.lowerBound(Math.max(since, NO_TIME + 1)) : 0;
+        for (int i = start; i < postings.size() && result.size() < limit; i++) {
+            int record = postings.get(i);
+            if (time(record) > until) {
+                break;
+            }
+            if (currency != null && buffer.getInt(offset(record) + CURRENCY) != currencyCode) {
+                continue;
+            }
+            if (checkKey && !touches(record, keyId)) {
+                continue;
+            }
+            if (skipped++ < offset) {
+                continue;
+            }
+            result.add(entry(record));
+        }
+        return result;
+    }
+
+    public synchronized long size() {
+        return count;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (records.isOpen()) {
+            buffer.force();
+            records.close();
+            keyFile.close();
+        }
+    }
+
+    private void addAndForce(SignedTransaction tx) {
+        synchronized (this) {
+            if (!records.isOpen()) {
+                return;
+            }
+            try {
+                add(tx, System.currentTimeMillis());
+                buffer.force();
+            } catch (IOException e) {
+                System.out.println("could not index " + tx.getId() + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * @param arrival the time of {@code tx} if it has no timestamp of its own, or {@link #NO_TIME}.
+     */
+    private void add(SignedTransaction tx, long arrival) throws IOException {
+        SecureHash hash = tx.getId();
+        if (!indexed.add(hash)) {
+            return;
+        }
+
+        WireTransaction wtx = tx.getTx();
+        long time = timeOf(wtx);
+        if (time == NO_TIME) {
+            time = arrival;
+        }
+
+        Set<String> parties = new LinkedHashSet<>();
+        Map<Integer, Long> currencies = new LinkedHashMap<>();
+        for (TransactionState<ContractState> output : wtx.getOutputs()) {
+            ContractState state = output.getData();
+            for (CompositeKey participant : state.getParticipants()) {
+                parties.add(participant.toBase58String());
+            }
+            if (state instanceof FungibleAsset) {
+                Amount<? extends Issued<?>> amount = ((FungibleAsset<?>) state).getAmount();
+                Object product = amount.getToken().getProduct();
+                if (product instanceof Currency) {
+                    currencies.merge(packCurrency(((Currency) product).getCurrencyCode()), amount.getQuantity(), Long::sum);
+                }
+            }
+        }
+        for (Command command : wtx.getCommands()) {
+            for (CompositeKey signer : command.getSigners()) {
+                parties.add(signer.toBase58String());
+            }
+        }
+        if (currencies.isEmpty()) {
+            currencies.put(0, 0L);
+        }
+
+        List<Integer> keyIdsOfTx = new ArrayList<>();
+        for (String party : parties) {
+            keyIdsOfTx.add(keyId(party));
+        }
+        if (keyIdsOfTx.isEmpty()) {
+            keyIdsOfTx.add(NO_KEY);
+        }
+        // The mapped records may reach the disk at any time, so the keys they refer to have to be there first.
+        if (keysUnsynced) {
+            keyFile.getChannel().force(false);
+            keysUnsynced = false;
+        }
+
+        ensureCapacity(count + (long) keyIdsOfTx.size() * currencies.size());
+        long first = count;
+        for (Map.Entry<Integer, Long> currency : currencies.entrySet()) {
+            boolean firstOfCurrency = true;
+            for (int keyId : keyIdsOfTx) {
+                int record = (int) count;
+                int at = offset(record);
+                buffer.putLong(at + TIME, time);
+                buffer.position(at + HASH);
+                buffer.put(hash.getBytes());
+                buffer.putInt(at + KEY, keyId);
+                buffer.putInt(at + CURRENCY, currency.getKey());
+                buffer.putLong(at + QUANTITY, currency.getValue());
+                buffer.putLong(at + FLAGS, firstOfCurrency ? FIRST : 0);
+                firstOfCurrency = false;
+                count++;
+            }
+        }
+        // Only now are the new records part of the index.
+        buffer.putLong(8, count);
+
+        for (long record = first; record < count; record++) {
+            post((int) record);
+        }
+    }
+
+    /**
+     * The transaction's own timestamp where it has one (the middle of its window, or whichever bound is set), else
+     * {@link #NO_TIME}.
+     */
+    private static long timeOf(WireTransaction wtx) {
+        Timestamp timestamp = wtx.getTimestamp();
+        if (timestamp == null || timestamp.getAfter() == null && timestamp.getBefore() == null) {
+            return NO_TIME;
+        }
+        if (timestamp.getAfter() != null && timestamp.getBefore() != null) {
+            return timestamp.getMidpoint().toEpochMilli();
+        }
+        return (timestamp.getAfter() != null ? timestamp.getAfter() : timestamp.getBefore()).toEpochMilli();
+    }
+
+    private void post(int record) {
+        int at = offset(record);
+        long time = buffer.getLong(at + TIME);
+        int keyId = buffer.getInt(at + KEY);
+        if (keyId != NO_KEY) {
+            byKey.computeIfAbsent(keyId, id -> new Postings()).add(record, time);
+        }
+        if ((buffer.getLong(at + FLAGS) & FIRST) != 0) {
+            byCurrency.computeIfAbsent(buffer.getInt(at + CURRENCY), code -> new Postings()).add(record, time);
+            all.add(record, time);
+        }
+    }
+
+    /**
+     * Whether the transaction and currency of {@code record}, found through another list, touched {@code keyId}. The
+     * records of one transaction and currency are contiguous, starting at the one flagged {@link #FIRST}.
+     */
+    private boolean touches(int record, int keyId) {
+        for (int r = record; r < count; r++) {
+            int at = offset(r);
+            if (r > record && (buffer.getLong(at + FLAGS) & FIRST) != 0) {
+                return false;
+            }
+            if (buffer.getInt(at + KEY) == keyId) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private HistoryEntry entry(int record) {
+        int at = offset(record);
+        int currency = buffer.getInt(at + CURRENCY);
+        long time = buffer.getLong(at + TIME);
+        return new HistoryEntry(
+                hashAt(record).toString(),
+                time == NO_TIME ? null : time,
+                currency == 0 ? null : unpackCurrency(currency),
+                buffer.getLong(at + QUANTITY)
+        );
+    }
+
+    private SecureHash hashAt(int record) {
+        byte[] bytes = new byte[32];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = buffer.get(offset(record) + HASH + i);
+        }
+        return new SecureHash.SHA256(bytes);
+    }
+
+    private long time(int record) {
+        return buffer.getLong(offset(record) + TIME);
+    }
+
+    private int keyId(String key) throws IOException {
+        Integer id = keyIds.get(key);
+        if (id == null) {
+            id = keys.size();
+            keyFile.seek(keyFile.length());
+            keyFile.writeUTF(key);
+            keysUnsynced = true;
+            keys.add(key);
+            keyIds.put(key, id);
+        }
+        return id;
+    }
+
+    /**
+     * Reads the key dictionary, dropping a last entry that was cut short by a crash.
+     */
+    private void loadKeys() throws IOException {
+        long good = 0;
+        keyFile.seek(0);
+        try {
+            while (keyFile.getFilePointer() < keyFile.length()) {
+                String key = keyFile.readUTF();
+                keyIds.put(key, keys.size());
+                keys.add(key);
+                good = keyFile.getFilePointer();
+            }
+        } catch (EOFException e) {
+            keyFile.setLength(good);
+        }
+    }
+
+    private void loadRecords() throws IOException {
+        long size = records.size();
+        if (size < HEADER_SIZE) {
+            map(HEADER_SIZE + (long) INITIAL_CAPACITY * RECORD_SIZE);
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+            buffer.putLong(8, 0);
+            return;
+        }
+
+        map(size);
+        if (buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a history index");
+        }
+        if (buffer.getInt(4) != VERSION) {
+            // The key dictionary stays valid; the records are indexed again from the RPC snapshot.
+            System.out.println("history index: rebuilding version " + buffer.getInt(4) + " index as version " + VERSION);
+            buffer.putInt(4, VERSION);
+            buffer.putLong(8, 0);
+            buffer.force();
+            return;
+        }
+        count = buffer.getLong(8);
+        for (int record = 0; record < count; record++) {
+            indexed.add(hashAt(record));
+            post(record);
+        }
+    }
+
+    private void ensureCapacity(long records) throws IOException {
+        long needed = HEADER_SIZE + records * RECORD_SIZE;
+        if (needed > Integer.MAX_VALUE) {
+            throw new IOException("History index is full");
+        }
+        if (needed > buffer.capacity()) {
+            buffer.force();
+            map(Math.min(Integer.MAX_VALUE, Math.max(needed, 2L * buffer.capacity())));
+        }
+    }
+
+    private void map(long size) throws IOException {
+        buffer = records.map(FileChannel.MapMode.READ_WRITE, 0, size);
+    }
+
+    private static int offset(int record) {
+        return HEADER_SIZE + record * RECORD_SIZE;
+    }
+
+    private static int packCurrency(String code) {
+        String upper = code.toUpperCase();
+        if (upper.length() != 3) {
+            throw new IllegalArgumentException("Not a currency code: " + code);
+        }
+        return upper.charAt(0) << 16 | upper.charAt(1) << 8 | upper.charAt(2);
+    }
+
+    private static String unpackCurrency(int code) {
+        return new String(new char[]{(char) (code >> 16 & 0xff), (char) (code >> 8 & 0xff), (char) (code & 0xff)});
+    }
+
+    /**
+     * Record numbers in timestamp order. Transactions mostly arrive in order, so adding is usually an append.
+     */
+    private class Postings {
+        private int[] records = new int[4];
+        private int size;
+
+        int size() {
+            return size;
+        }
+
+        int get(int i) {
+            return records[i];
+        }
+
+        void add(int record, long time) {
+            if (size == records.length) {
+                records = Arrays.copyOf(records, size * 2);
+            }
+            int at = size;
+            while (at > 0 && time(records[at - 1]) > time) {
+                at--;
+            }
+            System.arraycopy(records, at, records, at + 1, size - at);
+            records[at] = record;
+            size++;
+        }
+
+        /**
+         * @return the first position whose record is not older than {@code time}.
+         */
+        int lowerBound(long time) {
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (time(records[mid]) < time) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+    }
+}
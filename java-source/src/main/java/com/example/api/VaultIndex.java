@@ -0,0 +1,245 @@
+package com.example.api;
+
+import net.corda.core.contracts.*;
+import net.corda.core.crypto.CompositeKey;
+import net.corda.core.crypto.SecureHash;
+import net.corda.core.node.services.Vault;
+
+import java.util.*;
+
+/**
+ * The web tier's view of the node's unconsumed states, seeded from the shared {@link RpcFeeds#vault()} feed and kept
+ * current from its updates. Besides the states themselves it keeps inverted indexes by state class, currency,
+ * issuer key and participant key so that {@link #query(Filter)} only has to look at candidate states.
+ */
+public class VaultIndex {
+
+    private final Map<StateRef, StateAndRef<ContractState>> states = new LinkedHashMap<>();
+    private final Index byClass = new Index();
+    private final Index byCurrency = new Index();
+    private final Index byIssuer = new Index();
+    private final Index byParticipant = new Index();
+
+    public VaultIndex(RpcFeeds feeds) {
+        RpcFeeds.Feed<List<StateAndRef<ContractState>>, Vault.Update> feed = feeds.vault();
+        synchronized (states) {
+            feed.getSnapshot().forEach(this::add);
+        }
+
+        feed.getUpdates().subscribe(this::apply, error -> System.out.println("vault feed failed: " + error.getMessage()));
+    }
+
+    public List<StateAndRef<ContractState>> getAll() {
+        synchronized (states) {
+            return new ArrayList<>(states.values());
+        }
+    }
+
+    public List<StateAndRef<ContractState>> getByTxHash(SecureHash txHash) {
+        List<StateAndRef<ContractState>> result = new ArrayList<>();
+        synchronized (states) {
+            for (StateAndRef<ContractState> stateAndRef : states.values()) {
+                if (stateAndRef.getRef().getTxhash().equals(txHash)) {
+                    result.add(stateAndRef);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Intersects the index entries for every key the filter sets, starting from the smallest, then checks the amount
+     * bounds on what is left. Index entries are insertion ordered, so results keep vault order. The scan stops at the
+     * first match past the requested page, which is only used to tell whether there are more.
+     */
+    public Page query(Filter filter) {
+        synchronized (states) {
+            List<Set<StateRef>> candidates = new ArrayList<>();
+            if (filter.stateClass != null) {
+                candidates.add(byClass.get(filter.stateClass));
+            }
+            if (filter.currency != null) {
+                candidates.add(byCurrency.get(filter.currency.toUpperCase()));
+            }
+            if (filter.issuerKey != null) {
+                candidates.add(byIssuer.get(filter.issuerKey));
+            }
+            for (String participantKey : filter.participantKeys) {
+                candidates.add(byParticipant.get(participantKey));
+            }
+            candidates.sort(Comparator.comparingInt(Set::size));
+
+            Collection<StateRef> refs = candidates.isEmpty() ? states.keySet() : candidates.get(0);
+
+            long end = (long) filter.offset + filter.limit;
+            long matched = 0;
+            List<StateAndRef<ContractState>> page = new ArrayList<>();
+            for (StateRef ref : refs) {
+                if (!containedInAll(ref, candidates) || !withinAmount(states.get(ref).getState().getData(), filter)) {
+                    continue;
+                }
+                if (matched == end) {
+                    return new Page(true, filter.offset, filter.limit, page);
+                }
+                if (matched++ >= filter.offset) {
+                    page.add(states.get(ref));
+                }
+            }
+            return new Page(false, filter.offset, filter.limit, page);
+        }
+    }
+
+    private void apply(Vault.Update update) {
+        synchronized (states) {
+            update.getConsumed().forEach(this::remove);
+            update.getProduced().forEach(this::add);
+        }
+    }
+
+    private void add(StateAndRef<ContractState> stateAndRef) {
+        states.put(stateAndRef.getRef(), stateAndRef);
+        index(stateAndRef, true);
+    }
+
+    private void remove(StateAndRef<ContractState> stateAndRef) {
+        StateAndRef<ContractState> known = states.remove(stateAndRef.getRef());
+        if (known != null) {
+            index(known, false);
+        }
+    }
+
+    /**
+     * Adds a state to, or removes it from, the entry of each index it falls under.
+     */
+    private void index(StateAndRef<ContractState> stateAndRef, boolean add) {
+        StateRef ref = stateAndRef.getRef();
+        ContractState state = stateAndRef.getState().getData();
+
+        byClass.update(state.getClass().getName(), ref, add);
+        byClass.update(state.getClass().getSimpleName(), ref, add);
+
+        for (CompositeKey participant : state.getParticipants()) {
+            byParticipant.update(participant.toBase58String(), ref, add);
+        }
+
+        Amount<Issued<?>> amount = amountOf(state);
+        if (amount != null) {
+            Object product = amount.getToken().getProduct();
+            if (product instanceof Currency) {
+                byCurrency.update(((Currency) product).getCurrencyCode(), ref, add);
+            }
+            byIssuer.update(amount.getToken().getIssuer().getParty().getOwningKey().toBase58String(), ref, add);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Amount<Issued<?>> amountOf(ContractState state) {
+        if (state instanceof FungibleAsset) {
+            return ((FungibleAsset) state).getAmount();
+        }
+        return null;
+    }
+
+    private static boolean withinAmount(ContractState state, Filter filter) {
+        if (filter.minAmount == null && filter.maxAmount == null) {
+            return true;
+        }
+        Amount<Issued<?>> amount = amountOf(state);
+        if (amount == null) {
+            return false;
+        }
+        return (filter.minAmount == null || amount.getQuantity() >= filter.minAmount)
+                && (filter.maxAmount == null || amount.getQuantity() <= filter.maxAmount);
+    }
+
+    private static boolean containedInAll(StateRef ref, List<Set<StateRef>> candidates) {
+        for (Set<StateRef> candidate : candidates) {
+            if (!candidate.contains(ref)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * One dimension of the index: the refs of the states under each value, in insertion order.
+     */
+    private static class Index {
+        private final Map<String, Set<StateRef>> entries = new HashMap<>();
+
+        Set<StateRef> get(String value) {
+            return entries.getOrDefault(value, Collections.emptySet());
+        }
+
+        void update(String value, StateRef ref, boolean add) {
+            if (add) {
+                entries.computeIfAbsent(value, k -> new LinkedHashSet<>()).add(ref);
+                return;
+            }
+            Set<StateRef> refs = entries.get(value);
+            if (refs != null && refs.remove(ref) && refs.isEmpty()) {
+                entries.remove(value);
+            }
+        }
+    }
+
+    /**
+     * What a caller of {@link #query(Filter)} asks for. Keys are Base58 {@link CompositeKey}s; amounts are in the
+     * smallest unit of the token, as in {@link Amount#getQuantity()}.
+     */
+    public static class Filter {
+        private final String stateClass;
+        private final String currency;
+        private final String issuerKey;
+        private final Long minAmount;
+        private final Long maxAmount;
+        private final List<String> participantKeys;
+        private final int offset;
+        private final int limit;
+
+        public Filter(String stateClass, String currency, String issuerKey, Long minAmount, Long maxAmount,
+                      List<String> participantKeys, int offset, int limit) {
+            this.stateClass = stateClass;
+            this.currency = currency;
+            this.issuerKey = issuerKey;
+            this.minAmount = minAmount;
+            this.maxAmount = maxAmount;
+            this.participantKeys = participantKeys;
+            this.offset = Math.max(offset, 0);
+            this.limit = Math.max(limit, 0);
+        }
+    }
+
+    public static class Page {
+        private final boolean more;
+        private final int offset;
+        private final int limit;
+        private final List<StateAndRef<ContractState>> states;
+
+        public Page(boolean more, int offset, int limit, List<StateAndRef<ContractState>> states) {
+            this.more = more;
+            this.offset = offset;
+            this.limit = limit;
+            this.states = states;
+        }
+
+        /**
+         * @return whether states past this page match the filter too.
+         */
+        public boolean isMore() {
+            return more;
+        }
+
+        public int getOffset() {
+            return offset;
+        }
+
+        public int getLimit() {
+            return limit;
+        }
+
+        public List<StateAndRef<ContractState>> getStates() {
+            return states;
+        }
+    }
+}
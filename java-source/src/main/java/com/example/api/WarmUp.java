@@ -0,0 +1,142 @@
+package com.example.api;
+
+import javax.ws.rs.ServiceUnavailableException;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Builds something expensive on a background thread so that whatever needs it can be constructed, and start taking
+ * requests, straight away. Requests that arrive before it is ready wait for it up to {@code example.warmup.waitMillis}
+ * (default 30000) and then get a 503. If building fails, the next {@link #get()} starts over.
+ * <p>
+ * The task times its parts with {@link #step(String, Callable)}; {@link #report()} gives those timings and the time to
+ * ready, measured both from the start of the warm-up and from the start of the JVM.
+ */
+public class WarmUp<T> {
+
+    private static final long WAIT_MILLIS = Long.getLong("example.warmup.waitMillis", 30_000L);
+
+    public interface Task<T> {
+        T run(WarmUp<T> warmUp) throws Exception;
+    }
+
+    private final String name;
+    private final Task<T> task;
+
+    private final Map<String, Long> stepMillis = new LinkedHashMap<>();
+    private volatile CompletableFuture<T> result;
+    private volatile long startedAt;
+    private volatile long readyAt;
+
+    private WarmUp(String name, Task<T> task) {
+        this.name = name;
+        this.task = task;
+    }
+
+    public static <T> WarmUp<T> start(String name, Task<T> task) {
+        WarmUp<T> warmUp = new WarmUp<>(name, task);
+        warmUp.attempt();
+        return warmUp;
+    }
+
+    /**
+     * Runs one part of the warm-up, recording how long it took.
+     */
+    public <R> R step(String step, Callable<R> part) throws Exception {
+        long start = System.nanoTime();
+        try {
+            return part.call();
+        } finally {
+            synchronized (stepMillis) {
+                stepMillis.put(step, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            }
+        }
+    }
+
+    /**
+     * @return the result, waiting for the warm-up to finish if needed.
+     * @throws ServiceUnavailableException if it is not ready in time or failed.
+     */
+    public T get() {
+        retryIfFailed();
+        CompletableFuture<T> current = result;
+        try {
+            return current.get(WAIT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            throw new ServiceUnavailableException(name + " is still warming up", 1L);
+        } catch (ExecutionException e) {
+            throw new ServiceUnavailableException(name + " failed to start: " + e.getCause().getMessage(), 1L);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ServiceUnavailableException(name + " is still warming up", 1L);
+        }
+    }
+
+    /**
+     * Starts building again if the last attempt failed, without waiting for it.
+     */
+    public void retryIfFailed() {
+        if (result.isCompletedExceptionally()) {
+            attempt();
+        }
+    }
+
+    public boolean isReady() {
+        CompletableFuture<T> current = result;
+        return current.isDone() && !current.isCompletedExceptionally();
+    }
+
+    /**
+     * Whether it is ready, the time it took to get there and how long each step took.
+     */
+    public Map<String, Object> report() {
+        CompletableFuture<T> current = result;
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("ready", isReady());
+        if (isReady()) {
+            report.put("timeToReadyMillis", readyAt - startedAt);
+            report.put("sinceJvmStartMillis", readyAt - ManagementFactory.getRuntimeMXBean().getStartTime());
+        } else if (current.isCompletedExceptionally()) {
+            try {
+                current.join();
+            } catch (CompletionException e) {
+                report.put("error", String.valueOf(e.getCause().getMessage()));
+            }
+        } else {
+            report.put("warmingForMillis", System.currentTimeMillis() - startedAt);
+        }
+        synchronized (stepMillis) {
+            report.put("steps", new LinkedHashMap<>(stepMillis));
+        }
+        return report;
+    }
+
+    private synchronized CompletableFuture<T> attempt() {
+        if (result != null && !result.isCompletedExceptionally()) {
+            return result;
+        }
+
+        CompletableFuture<T> attempt = new CompletableFuture<>();
+        startedAt = System.currentTimeMillis();
+        result = attempt;
+
+        Thread thread = new Thread(() -> {
+            try {
+                T value = task.run(this);
+                readyAt = System.currentTimeMillis();
+                synchronized (stepMillis) {
+                    System.out.println(name + " ready in " + (readyAt - startedAt) + "ms, "
+                            + (readyAt - ManagementFactory.getRuntimeMXBean().getStartTime()) + "ms after JVM start: " + stepMillis);
+                }
+                attempt.complete(value);
+            } catch (Throwable e) {
+                System.out.println(name + " failed to warm up: " + e);
+                attempt.completeExceptionally(e);
+            }
+        }, "warmup-" + name);
+        thread.setDaemon(true);
+        thread.start();
+        return attempt;
+    }
+}
@@ -0,0 +1,82 @@
+package com.example.flow;
+
+import co.paralleluniverse.fibers.Suspendable;
+import net.corda.contracts.asset.Cash;
+import net.corda.core.contracts.TransactionType;
+import net.corda.core.crypto.Party;
+import net.corda.core.flows.FlowException;
+import net.corda.core.flows.FlowLogic;
+import net.corda.core.transactions.SignedTransaction;
+import net.corda.core.transactions.TransactionBuilder;
+import net.corda.flows.FinalityFlow;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Issues cash straight to many recipients, in any number of currencies. Run on the issuing node: every leg must be
+ * issued by this node. The legs are issued in transactions of at most {@link #MAX_BATCH_SIZE} outputs each, one after
+ * the other, so a client starts one flow however many legs it has.
+ */
+public class BulkIssueFlow extends FlowLogic<ArrayList<SignedTransaction>> {
+
+    public static final int MAX_BATCH_SIZE = Integer.getInteger("example.bulkIssue.maxBatchSize", 500);
+
+    private final List<MultiPaymentFlow.PaymentLeg> legs;
+    private final Party notary;
+
+    public BulkIssueFlow(List<MultiPaymentFlow.PaymentLeg> legs, Party notary) {
+        this.legs = legs;
+        this.notary = notary;
+    }
+
+    /**
+     * @return the issuing transactions, in the order of the legs.
+     */
+    @Override
+    @Suspendable
+    public ArrayList<SignedTransaction> call() throws FlowException {
+        if (legs.isEmpty()) {
+            throw new FlowException("Nothing to issue");
+        }
+
+        Party me = getServiceHub().getMyInfo().getLegalIdentity();
+        // Checked up front, so a bad leg fails the flow before any batch is issued.
+        for (MultiPaymentFlow.PaymentLeg leg : legs) {
+            if (!leg.getAmount().getToken().getIssuer().getParty().equals(me)) {
+                throw new FlowException("Can only issue our own cash: " + leg);
+            }
+            if (leg.getAmount().getQuantity() <= 0) {
+                throw new FlowException("Leg amounts must be positive: " + leg);
+            }
+        }
+
+        ArrayList<SignedTransaction> txs = new ArrayList<>();
+        for (int from = 0; from < legs.size(); from += MAX_BATCH_SIZE) {
+            txs.add(issue(me, legs.subList(from, Math.min(from + MAX_BATCH_SIZE, legs.size()))));
+        }
+        return txs;
+    }
+
+    @Suspendable
+    private SignedTransaction issue(Party me, List<MultiPaymentFlow.PaymentLeg> batch) throws FlowException {
+        TransactionBuilder builder = new TransactionType.General.Builder(notary);
+        Set<Party> recipients = new HashSet<>();
+
+        for (MultiPaymentFlow.PaymentLeg leg : batch) {
+            builder.addOutputState(new Cash.State(leg.getAmount(), leg.getRecipient().getOwningKey()));
+            recipients.add(leg.getRecipient());
+        }
+        builder.addCommand(new Cash.Commands.Issue(), me.getOwningKey());
+
+        builder.signWith(getServiceHub().getLegalIdentityKey());
+        SignedTransaction tx = builder.toSignedTransaction(false);
+
+        recipients.remove(me);
+        subFlow(new FinalityFlow(tx, recipients));
+
+        return tx;
+    }
+}
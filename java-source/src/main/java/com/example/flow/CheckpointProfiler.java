@@ -0,0 +1,89 @@
+package com.example.flow;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.JmxReporter;
+import com.codahale.metrics.MetricRegistry;
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Output;
+import net.corda.core.flows.FlowLogic;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Measures how much state a flow carries into each of its suspension points. Flows call
+ * {@link #record(FlowLogic, String, Object...)} just before they suspend, passing themselves and the locals that are
+ * still live. Every field the flow's own classes declare is recorded along with those locals, the same way at every
+ * suspension point, and their Kryo-serialized size is a close estimate of what the checkpoint written at that point
+ * has to hold for the flow itself. The fields {@link FlowLogic} declares are left out, since checkpoints only hold
+ * tokens for the state machine and services they refer to.
+ * <p>
+ * Off by default. Start the node with {@code -Dexample.profileCheckpoints=true} to collect a histogram per flow class
+ * and suspension point, published over JMX under the {@code com.example.checkpoints} domain.
+ */
+public class CheckpointProfiler {
+
+    public static final boolean ENABLED = Boolean.getBoolean("example.profileCheckpoints");
+
+    private static final MetricRegistry metrics = new MetricRegistry();
+
+    private static final ThreadLocal<Kryo> kryo = ThreadLocal.withInitial(() -> {
+        Kryo kryo = new Kryo();
+        kryo.setRegistrationRequired(false);
+        return kryo;
+    });
+
+    private static final ClassValue<List<Field>> flowFields = new ClassValue<List<Field>>() {
+        @Override
+        protected List<Field> computeValue(Class<?> type) {
+            List<Field> fields = new ArrayList<>();
+            for (Class<?> current = type; current != null && current != FlowLogic.class; current = current.getSuperclass()) {
+                for (Field field : current.getDeclaredFields()) {
+                    if (!Modifier.isStatic(field.getModifiers()) && !field.isSynthetic()) {
+                        field.setAccessible(true);
+                        fields.add(field);
+                    }
+                }
+            }
+            return fields;
+        }
+    };
+
+    static {
+        if (ENABLED) {
+            JmxReporter.forRegistry(metrics).inDomain("com.example.checkpoints").build().start();
+        }
+    }
+
+    private CheckpointProfiler() {
+    }
+
+    public static MetricRegistry getMetrics() {
+        return metrics;
+    }
+
+    public static void record(FlowLogic<?> flow, String suspensionPoint, Object... live) {
+        if (!ENABLED) {
+            return;
+        }
+
+        String flowName = flow.getClass().getSimpleName();
+        Histogram sizes = metrics.histogram(MetricRegistry.name(flowName, suspensionPoint, "bytes"));
+        try {
+            List<Object> state = new ArrayList<>();
+            for (Field field : flowFields.get(flow.getClass())) {
+                state.add(field.get(flow));
+            }
+            state.addAll(Arrays.asList(live));
+
+            Output output = new Output(1024, -1);
+            kryo.get().writeClassAndObject(output, state);
+            sizes.update(output.total());
+        } catch (RuntimeException | IllegalAccessException e) {
+            metrics.counter(MetricRegistry.name(flowName, suspensionPoint, "failures")).inc();
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.example.flow;
+
+import co.paralleluniverse.fibers.Suspendable;
+import net.corda.contracts.asset.Cash;
+import net.corda.core.contracts.*;
+import net.corda.core.crypto.CompositeKey;
+import net.corda.core.crypto.Party;
+import net.corda.core.flows.FlowException;
+import net.corda.core.flows.FlowLogic;
+import net.corda.core.serialization.OpaqueBytes;
+import net.corda.core.transactions.SignedTransaction;
+import net.corda.core.transactions.TransactionBuilder;
+import net.corda.flows.FinalityFlow;
+
+import java.util.*;
+
+/**
+ * Merges up to {@code batchSize} of our smallest cash states of one issued currency into a single state, so later
+ * coin selection has fewer states to walk through. Only states sharing a notary are merged together.
+ *
+ * @return the consolidating transaction, or null if there were fewer than two states to merge.
+ */
+public class ConsolidationFlow extends FlowLogic<SignedTransaction> {
+
+    private final String currencyCode;
+    private final Party issuer;
+    private final OpaqueBytes issuerRef;
+    private final int batchSize;
+
+    public ConsolidationFlow(String currencyCode, Party issuer, OpaqueBytes issuerRef, Integer batchSize) {
+        this.currencyCode = currencyCode;
+        this.issuer = issuer;
+        this.issuerRef = issuerRef;
+        this.batchSize = batchSize;
+    }
+
+    @Override
+    @Suspendable
+    public SignedTransaction call() throws FlowException {
+        SignedTransaction tx = buildAndSign();
+        if (tx == null) {
+            return null;
+        }
+
+        subFlow(new FinalityFlow(tx, Collections.emptySet()));
+
+        return tx;
+    }
+
+    private SignedTransaction buildAndSign() throws FlowException {
+        CompositeKey me = getServiceHub().getMyInfo().getLegalIdentity().getOwningKey();
+        Issued<Currency> token = new Issued<>(new PartyAndReference(issuer, issuerRef), ContractsDSL.currency(currencyCode));
+
+        Map<Party, List<StateAndRef<ContractState>>> byNotary = new HashMap<>();
+        for (StateAndRef<ContractState> stateAndRef : getServiceHub().getVaultService().getCurrentVault().getStates()) {
+            if (!(stateAndRef.getState().getData() instanceof Cash.State)) {
+                continue;
+            }
+            Cash.State cash = (Cash.State) stateAndRef.getState().getData();
+            if (cash.getOwner().equals(me) && cash.getAmount().getToken().equals(token)) {
+                byNotary.computeIfAbsent(stateAndRef.getState().getNotary(), notary -> new ArrayList<>()).add(stateAndRef);
+            }
+        }
+
+        List<StateAndRef<ContractState>> coins = byNotary.values().stream()
+                .max(Comparator.comparingInt(List::size))
+                .orElse(Collections.emptyList());
+        if (coins.size() < 2) {
+            return null;
+        }
+
+        coins.sort(Comparator.comparingLong(coin -> ((Cash.State) coin.getState().getData()).getAmount().getQuantity()));
+        coins = coins.subList(0, Math.min(batchSize, coins.size()));
+
+        TransactionBuilder builder = new TransactionType.General.Builder(coins.get(0).getState().getNotary());
+        long total = 0;
+        for (StateAndRef<ContractState> coin : coins) {
+            builder.addInputState(coin);
+            total = Math.addExact(total, ((Cash.State) coin.getState().getData()).getAmount().getQuantity());
+        }
+        builder.addOutputState(new Cash.State(new Amount<>(total, token), me));
+        builder.addCommand(new Cash.Commands.Move(), me);
+
+        builder.signWith(getServiceHub().getLegalIdentityKey());
+        return builder.toSignedTransaction(false);
+    }
+}
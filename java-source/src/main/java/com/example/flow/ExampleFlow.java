@@ -3,84 +3,163 @@ package com.example.flow;
 import co.paralleluniverse.fibers.Suspendable;
 import com.example.api.ExampleApi;
 import com.example.models.CurrencyRate;
+import com.example.models.FixedPointConverter;
+import com.example.models.RateHistory;
+import com.example.service.OrderBookService;
+import com.example.service.RateHistoryService;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import net.corda.contracts.asset.Cash;
 import net.corda.core.contracts.Amount;
+import net.corda.core.contracts.ContractState;
 import net.corda.core.contracts.ContractsDSL;
 import net.corda.core.contracts.Issued;
 import net.corda.core.contracts.PartyAndReference;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.contracts.TransactionState;
+import net.corda.core.crypto.CompositeKey;
 import net.corda.core.crypto.Party;
 import net.corda.core.crypto.SecureHash;
 import net.corda.core.flows.FlowException;
 import net.corda.core.flows.FlowLogic;
+import net.corda.core.node.NodeInfo;
 import net.corda.core.node.ServiceEntry;
+import net.corda.core.node.ServiceHub;
 import net.corda.core.serialization.CordaSerializable;
 import net.corda.core.serialization.OpaqueBytes;
 import net.corda.core.transactions.SignedTransaction;
-import net.corda.core.utilities.UntrustworthyData;
 import net.corda.flows.CashPaymentFlow;
 import net.corda.jackson.JacksonSupport;
 
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Currency;
-import java.util.List;
-import java.util.Set;
+import java.math.RoundingMode;
+import java.util.*;
 
 /**
  * Created by evilkid on 4/6/2017.
  */
 public class ExampleFlow {
 
-    public static class MasterFxFlow extends FlowLogic<SignedTransaction> {
+    /**
+     * The fixed-point rate (see {@link RateHistory#SCALE}) this node currently quotes for {@code from -> to}: the latest
+     * point of the pair's history, as cached by the {@link RateHistoryService}, or the entry of the rate table for
+     * nodes that have no history yet.
+     *
+     * @return null if this node has no rate for the pair.
+     */
+    public static Long currentRate(ServiceHub serviceHub, String from, String to) {
+        Long rate = RateHistoryService.getInstance().rateAsOf(from, to, System.currentTimeMillis());
+        if (rate != null) {
+            return rate;
+        }
+
+        try {
+            String ratesJson = ExampleApi.getLastElement(serviceHub.getVaultService().getTransactionNotes(SecureHash.sha256("rates")));
+            ObjectMapper json = JacksonSupport.createNonRpcMapper();
+            Set<CurrencyRate> rates = json.readValue(ratesJson, new TypeReference<Set<CurrencyRate>>() {
+            });
+
+            for (CurrencyRate rate : rates) {
+                if (from.equals(rate.getFrom()) && to.equals(rate.getTo())) {
+                    return RateHistory.toScaled(rate.getRate());
+                }
+            }
+        } catch (IOException | NoSuchElementException e) {
+            System.out.println("no rate table: " + e.getMessage());
+        }
+
+        return null;
+    }
+
+    /**
+     * Everything this flow keeps on its stack is written into a checkpoint at every suspension, so it only holds on to
+     * parties, primitives and ids: the amount is kept as its parts, only the currency code of the receiver's answer is
+     * kept, and the fee payment is referred to by its transaction id.
+     * <p>
+     * If the trader rests the exchange (see {@link OrderBookService}) the fee payment is the order's id: the outcome
+     * carries it, and {@link OrderBookFlow.StatusRequester} asks the trader for the payout later.
+     */
+    public static class MasterFxFlow extends FlowLogic<MasterFxFlow.Outcome> {
 
         private final Party fxTrader;
         private final Party receiver;
-        private final Amount<Issued<Currency>> amount;
+        private final long quantity;
+        private final String currencyCode;
+        private final Party issuer;
+        private final OpaqueBytes issuerRef;
 
 
         public MasterFxFlow(Party receiver, Party fxTrader, Amount<Issued<Currency>> amount) {
             System.out.println("init flow");
             this.fxTrader = fxTrader;
             this.receiver = receiver;
-            this.amount = amount;
+            this.quantity = amount.getQuantity();
+            this.currencyCode = amount.getToken().getProduct().getCurrencyCode();
+            this.issuer = amount.getToken().getIssuer().getParty();
+            this.issuerRef = amount.getToken().getIssuer().getReference();
         }
 
         @Override
         @Suspendable
-        public SignedTransaction call() throws FlowException {
+        public Outcome call() throws FlowException {
 
 
             System.out.println("sending receive...");
 
             //gimmi which currencies ur using...
-            UntrustworthyData<List> res = receive(List.class, receiver);
+            CheckpointProfiler.record(this, "receiveCurrencies");
+            String targetCurrency = receive(List.class, receiver).unwrap(list -> ((Currency) list.get(0)).getCurrencyCode());
 
-            List<Currency> currencies = res.unwrap(list -> list);
+            Amount<Issued<Currency>> amount = new Amount<>(quantity, new Issued<>(new PartyAndReference(issuer, issuerRef), ContractsDSL.currency(currencyCode)));
 
+            CheckpointProfiler.record(this, "payFees", targetCurrency, amount);
+            SecureHash paidFeesId = subFlow(new CashPaymentFlow(amount, fxTrader)).getId();
+            System.out.println("we have a: " + paidFeesId);
 
-            SignedTransaction tx = subFlow(new CashPaymentFlow(amount, fxTrader));
-            System.out.println("we have a: " + tx);
-//            subFlow()
+            CheckpointProfiler.record(this, "exchange", targetCurrency, paidFeesId);
+            SignedTransaction ftx = subFlow(new ExchangeInitiator(new ExchangeInfo(paidFeesId, receiver, quantity, ContractsDSL.currency(targetCurrency)), fxTrader));
 
-//            Object o = sendAndReceive(SignedTransaction.class, fxTrader, new ExchangeInfo(tx, receiver, amount.getQuantity(), currencies.get(0)));
+            System.out.println("done");
 
-            SignedTransaction ftx = subFlow(new ExchangeInitiator(new ExchangeInfo(tx, receiver, amount.getQuantity(), currencies.get(0)), fxTrader));
+            return ftx == null ? new Outcome(fxTrader, null, paidFeesId) : new Outcome(fxTrader, ftx.getId(), null);
+        }
 
-            System.out.println("waiting...");
-            System.out.println("done");
+        /**
+         * The payout of an exchange, or if the trader rested it, the id of the order, i.e. of the fee payment.
+         */
+        @CordaSerializable
+        public static class Outcome {
+            private final Party trader;
+            private final SecureHash payout;
+            private final SecureHash restingOrder;
+
+            public Outcome(Party trader, SecureHash payout, SecureHash restingOrder) {
+                this.trader = trader;
+                this.payout = payout;
+                this.restingOrder = restingOrder;
+            }
 
-            return ftx;
+            public Party getTrader() {
+                return trader;
+            }
+
+            public SecureHash getPayout() {
+                return payout;
+            }
+
+            public SecureHash getRestingOrder() {
+                return restingOrder;
+            }
         }
 
         @CordaSerializable
-        class ExchangeInfo {
-            private SignedTransaction paidFees;
+        static class ExchangeInfo {
+            private SecureHash paidFees;
             private Party receiver;
-            private Long amount;
+            private long amount;
             private Currency currency;
 
-            public ExchangeInfo(SignedTransaction paidFees, Party receiver, Long amount, Currency currency) {
+            public ExchangeInfo(SecureHash paidFees, Party receiver, long amount, Currency currency) {
                 this.paidFees = paidFees;
                 this.receiver = receiver;
                 this.amount = amount;
@@ -97,6 +176,197 @@ public class ExampleFlow {
                         '}';
             }
         }
+
+        /**
+         * A trader's answer to an {@link ExchangeInfo}: the payout, the id of the order the trader rested instead (see
+         * {@link OrderBookService}), or if it could not pay out, the refund of what it was paid.
+         */
+        @CordaSerializable
+        static class ExchangeReply {
+            private SignedTransaction payout;
+            private SecureHash restingOrder;
+            private SignedTransaction refund;
+
+            public ExchangeReply(SignedTransaction payout, SecureHash restingOrder) {
+                this(payout, restingOrder, null);
+            }
+
+            public ExchangeReply(SignedTransaction payout, SecureHash restingOrder, SignedTransaction refund) {
+                this.payout = payout;
+                this.restingOrder = restingOrder;
+                this.refund = refund;
+            }
+        }
+    }
+
+
+    /**
+     * Exchanges a large amount through several traders at once. The amount is cut into equal tranches, one per trader
+     * the caller picked (the web tier passes those with the best quotes, see {@code ExchangeRouter}), the fees for all
+     * tranches are paid in a single transaction, and the exchange requests then go out to every trader before any
+     * answer is awaited so the traders work in parallel.
+     * <p>
+     * A trader that fails to fill its tranche refunds what it was paid for it, see {@link ExchangeResponder}. Refunded
+     * tranches are re-placed with the best trader that did fill its tranche, paid from the refund. Tranches that were
+     * neither filled nor refunded are recorded as a note on the fee transaction, for reconciliation with that trader,
+     * and fail the flow once everything else is paid out; they are never paid for a second time.
+     *
+     * @return the ids of the payout transactions; tranches a trader rested are paid out later and left out.
+     */
+    public static class SplitFxFlow extends FlowLogic<List<SecureHash>> {
+
+        private final Party receiver;
+        private final long quantity;
+        private final String currencyCode;
+        private final Party issuer;
+        private final OpaqueBytes issuerRef;
+        private final List<Party> traders;
+
+        public SplitFxFlow(Party receiver, Amount<Issued<Currency>> amount, List<Party> traders) {
+            this.receiver = receiver;
+            this.quantity = amount.getQuantity();
+            this.currencyCode = amount.getToken().getProduct().getCurrencyCode();
+            this.issuer = amount.getToken().getIssuer().getParty();
+            this.issuerRef = amount.getToken().getIssuer().getReference();
+            this.traders = new ArrayList<>(traders);
+        }
+
+        @Override
+        @Suspendable
+        public List<SecureHash> call() throws FlowException {
+            List<Party> traders = new ArrayList<>(this.traders);
+            traders.remove(getServiceHub().getMyInfo().getLegalIdentity());
+            if (traders.isEmpty()) {
+                throw new FlowException("No trader to split the exchange across");
+            }
+
+            Map<Party, Long> split = new LinkedHashMap<>();
+            for (int i = 0; i < traders.size(); i++) {
+                split.put(traders.get(i), quantity / traders.size() + (i < quantity % traders.size() ? 1 : 0));
+            }
+
+            CheckpointProfiler.record(this, "receiveCurrencies", split);
+            String targetCurrency = receive(List.class, receiver).unwrap(list -> ((Currency) list.get(0)).getCurrencyCode());
+
+            List<MultiPaymentFlow.PaymentLeg> fees = new ArrayList<>();
+            for (Map.Entry<Party, Long> tranche : split.entrySet()) {
+                fees.add(new MultiPaymentFlow.PaymentLeg(tranche.getKey(), amountOf(tranche.getValue())));
+            }
+
+            CheckpointProfiler.record(this, "payFees", split, targetCurrency, fees);
+            SecureHash paidFeesId = subFlow(new MultiPaymentFlow(fees)).getId();
+
+            CheckpointProfiler.record(this, "exchange", split, targetCurrency, paidFeesId);
+            SplitExchangeInitiator.Outcome outcome = subFlow(new SplitExchangeInitiator(paidFeesId, receiver, targetCurrency, split));
+            List<SecureHash> payouts = outcome.payouts();
+
+            long refunded = 0;
+            List<String> lost = new ArrayList<>();
+            for (Map.Entry<Party, Long> tranche : split.entrySet()) {
+                if (outcome.filled.containsKey(tranche.getKey())) {
+                    continue;
+                }
+                String description = tranche.getKey().getName() + " " + tranche.getValue() + " " + currencyCode;
+                SecureHash refund = outcome.refunded.get(tranche.getKey());
+                if (refund != null) {
+                    refunded += tranche.getValue();
+                    getServiceHub().getVaultService().addNoteToTransaction(paidFeesId, "refunded tranche: " + description + " in " + refund);
+                } else {
+                    lost.add(description);
+                    getServiceHub().getVaultService().addNoteToTransaction(paidFeesId, "unfilled tranche: " + description);
+                }
+            }
+
+            if (refunded > 0) {
+                if (outcome.filled.isEmpty()) {
+                    throw new FlowException("No trader filled its tranche, fees paid in " + paidFeesId + ", refunded: " + outcome.refunded.values()
+                            + (lost.isEmpty() ? "" : ", not refunded: " + lost));
+                }
+
+                Party survivor = outcome.filled.keySet().iterator().next();
+                System.out.println("re-placing " + refunded + " with " + survivor.getName());
+
+                CheckpointProfiler.record(this, "compensationFees", targetCurrency, payouts, lost, survivor, refunded);
+                SecureHash compensationFeesId = subFlow(new CashPaymentFlow(amountOf(refunded), survivor)).getId();
+
+                CheckpointProfiler.record(this, "compensationExchange", targetCurrency, payouts, lost, survivor, refunded, compensationFeesId);
+                SplitExchangeInitiator.Outcome compensation = subFlow(new SplitExchangeInitiator(compensationFeesId, receiver, targetCurrency, Collections.singletonMap(survivor, refunded)));
+                if (compensation.filled.isEmpty()) {
+                    throw new FlowException("Could not re-place " + refunded + " " + currencyCode + " with " + survivor.getName()
+                            + (compensation.refunded.isEmpty() ? ", fees paid in " + compensationFeesId : ", refunded in " + compensation.refunded.get(survivor)));
+                }
+                payouts.addAll(compensation.payouts());
+            }
+
+            if (!lost.isEmpty()) {
+                throw new FlowException("Tranches neither filled nor refunded: " + lost + ", fees paid in " + paidFeesId + "; payouts: " + payouts);
+            }
+            return payouts;
+        }
+
+        private Amount<Issued<Currency>> amountOf(long tranche) {
+            return new Amount<>(tranche, new Issued<>(new PartyAndReference(issuer, issuerRef), ContractsDSL.currency(currencyCode)));
+        }
+    }
+
+    /**
+     * Sends one exchange request per trader before waiting for any payout, so every trader's
+     * {@link ExchangeResponder} runs concurrently.
+     */
+    public static class SplitExchangeInitiator extends FlowLogic<SplitExchangeInitiator.Outcome> {
+
+        private final SecureHash paidFeesId;
+        private final Party receiver;
+        private final String targetCurrency;
+        private final Map<Party, Long> split;
+
+        public SplitExchangeInitiator(SecureHash paidFeesId, Party receiver, String targetCurrency, Map<Party, Long> split) {
+            this.paidFeesId = paidFeesId;
+            this.receiver = receiver;
+            this.targetCurrency = targetCurrency;
+            this.split = split;
+        }
+
+        @Override
+        @Suspendable
+        public Outcome call() throws FlowException {
+            for (Map.Entry<Party, Long> tranche : split.entrySet()) {
+                send(tranche.getKey(), new MasterFxFlow.ExchangeInfo(paidFeesId, receiver, tranche.getValue(), ContractsDSL.currency(targetCurrency)));
+            }
+
+            Outcome outcome = new Outcome();
+            for (Party trader : split.keySet()) {
+                try {
+                    CheckpointProfiler.record(this, "receivePayout", outcome);
+                    MasterFxFlow.ExchangeReply reply = receive(MasterFxFlow.ExchangeReply.class, trader).unwrap(exchangeReply -> exchangeReply);
+                    if (reply.refund != null) {
+                        System.out.println("tranche with " + trader.getName() + " refunded in " + reply.refund.getId());
+                        outcome.refunded.put(trader, reply.refund.getId());
+                    } else {
+                        outcome.filled.put(trader, reply.payout == null ? null : reply.payout.getId());
+                    }
+                } catch (Exception e) {
+                    System.out.println("tranche with " + trader.getName() + " failed: " + e.getMessage());
+                }
+            }
+            return outcome;
+        }
+
+        /**
+         * The payout transaction id of each trader that filled its tranche, null for a trader that rested it, and the
+         * refund transaction id of each trader that could not fill it. Traders that failed without a refund are in
+         * neither.
+         */
+        public static class Outcome {
+            private final Map<Party, SecureHash> filled = new LinkedHashMap<>();
+            private final Map<Party, SecureHash> refunded = new LinkedHashMap<>();
+
+            List<SecureHash> payouts() {
+                List<SecureHash> payouts = new ArrayList<>(filled.values());
+                payouts.removeIf(Objects::isNull);
+                return payouts;
+            }
+        }
     }
 
 
@@ -139,6 +409,11 @@ public class ExampleFlow {
     }
 
 
+    /**
+     * @return the payout, or null if the trader rested the exchange; its payout then reaches the receiver later, in a
+     * transaction of its own or in a swap.
+     * @throws FlowException if the trader could not pay out; it refunds what it was paid.
+     */
     public static class ExchangeInitiator extends FlowLogic<SignedTransaction> {
 
 
@@ -156,10 +431,23 @@ public class ExampleFlow {
         public SignedTransaction call() throws FlowException {
             System.out.println("from ExchangeInitiator..");
 
-            return sendAndReceive(SignedTransaction.class, fxTrader, exchangeInfo).unwrap(signedTransaction -> signedTransaction);
+            CheckpointProfiler.record(this, "sendExchangeInfo");
+            MasterFxFlow.ExchangeReply reply = sendAndReceive(MasterFxFlow.ExchangeReply.class, fxTrader, exchangeInfo).unwrap(exchangeReply -> exchangeReply);
+            if (reply.refund != null) {
+                throw new FlowException(fxTrader.getName() + " could not pay out, refunded in " + reply.refund.getId());
+            }
+            if (reply.payout == null) {
+                System.out.println("order " + reply.restingOrder + " resting with " + fxTrader.getName());
+            }
+            return reply.payout;
         }
     }
 
+    /**
+     * Pays an exchange out to its receiver. If that fails before anything was paid out, what the initiator paid for the
+     * exchange is sent back to it and the refund is the answer, so the initiator can place the exchange elsewhere
+     * without paying twice.
+     */
     public static class ExchangeResponder extends FlowLogic<SignedTransaction> {
 
         private final Party otherParty;
@@ -174,31 +462,19 @@ public class ExampleFlow {
         public SignedTransaction call() throws FlowException {
 
 
+            MasterFxFlow.ExchangeInfo info = null;
+            boolean settled = false;
             try {
-                MasterFxFlow.ExchangeInfo info = receive(MasterFxFlow.ExchangeInfo.class, otherParty).unwrap(exchangeInfo -> exchangeInfo);
+                info = receive(MasterFxFlow.ExchangeInfo.class, otherParty).unwrap(exchangeInfo -> exchangeInfo);
 
-                float rateVal = 0;
-
-                try {
-                    String ratesJson = ExampleApi.getLastElement(getServiceHub().getVaultService().getTransactionNotes(SecureHash.sha256("rates")));
-                    ObjectMapper json = JacksonSupport.createNonRpcMapper();
-                    Set<CurrencyRate> rates = json.readValue(ratesJson, new TypeReference<Set<CurrencyRate>>() {
-                    });
-
-                    for (CurrencyRate rate : rates) {
-                        if ("USD".equals(rate.getFrom()) && info.currency.getCurrencyCode().equals(rate.getTo())) {
-                            rateVal = rate.getRate();
-                        }
-                    }
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
+                Long scaledRate = currentRate(getServiceHub(), "USD", info.currency.getCurrencyCode());
+                long fee = scaledRate == null ? 0 : FixedPointConverter.apply(info.amount, scaledRate, RoundingMode.DOWN);
 
                 Amount<Issued<Currency>> amount = new Amount<>(
-                        info.amount - (long) (rateVal * info.amount),
+                        info.amount - fee,
                         new Issued<>(
                                 new PartyAndReference(
-                                        getServiceHub().getNetworkMapCache().getNodeByLegalName("NodeC").getLegalIdentity(),
+                                        issuerOf(getServiceHub(), info.currency, info.amount - fee),
                                         OpaqueBytes.Companion.of((byte) 1)
                                 ),
                                 info.currency
@@ -206,16 +482,265 @@ public class ExampleFlow {
                 );
 
                 System.out.println("execing");
-                SignedTransaction signedTransaction = subFlow(new CashPaymentFlow(amount, info.receiver));
+                CheckpointProfiler.record(this, "payout", info, amount);
+                MasterFxFlow.ExchangeReply reply = settle(info, amount);
+                settled = true;
 
-                send(otherParty, signedTransaction);
+                CheckpointProfiler.record(this, "sendPayout", reply);
+                send(otherParty, reply);
 
-                return signedTransaction;
+                return reply.payout;
             } catch (Exception e) {
                 e.printStackTrace();
+                if (info != null && !settled) {
+                    refund(info.paidFees);
+                }
                 return null;
             }
         }
+
+        /**
+         * Sends what the payment {@code paidFees} paid us back to the initiator and answers with the refund.
+         */
+        @Suspendable
+        private void refund(SecureHash paidFees) {
+            try {
+                Amount<Issued<Currency>> received = receivedFor(paidFees);
+                if (received == null) {
+                    System.out.println("cannot refund " + paidFees + ": not in our storage");
+                    return;
+                }
+                CheckpointProfiler.record(this, "refund", paidFees, received);
+                SignedTransaction refund = subFlow(new CashPaymentFlow(received, otherParty));
+                send(otherParty, new MasterFxFlow.ExchangeReply(null, null, refund));
+            } catch (Exception e) {
+                System.out.println("refund of " + paidFees + " failed: " + e.getMessage());
+            }
+        }
+
+        /**
+         * Pays {@code payout} out through the {@link OrderBookService} if resting is on: crossed with resting exchanges
+         * of the opposite pair in one swap transaction if there are any, otherwise rested in the book, which pays it out
+         * later. If the swap fails the exchange is paid out on its own after all. Exchanges whose fee payment is not in
+         * our storage yet, or that are paid out in the currency they came in, skip the book.
+         * <p>
+         * The order is identified by the fee payment, and only its id is kept across suspensions; the book itself is
+         * looked up each time.
+         */
+        @Suspendable
+        private MasterFxFlow.ExchangeReply settle(MasterFxFlow.ExchangeInfo info, Amount<Issued<Currency>> payout) throws FlowException {
+            Amount<Issued<Currency>> received = receivedFor(info.paidFees);
+            if (OrderBookService.getInstance() == null || OrderBookService.REST_MILLIS <= 0 || received == null
+                    || received.getToken().getProduct().equals(payout.getToken().getProduct())) {
+                return new MasterFxFlow.ExchangeReply(subFlow(new CashPaymentFlow(payout, info.receiver)), null);
+            }
+
+            SecureHash id = info.paidFees;
+            OrderBookService.getInstance().submit(id, otherParty, info.receiver, received, payout);
+
+            List<MultiPaymentFlow.PaymentLeg> legs = OrderBookService.getInstance().swapLegs(id);
+            if (legs.isEmpty()) {
+                return new MasterFxFlow.ExchangeReply(null, id);
+            }
+
+            SignedTransaction swap;
+            try {
+                swap = subFlow(new MultiPaymentFlow(legs));
+            } catch (FlowException | RuntimeException e) {
+                OrderBookService.getInstance().settled(id, null, e.getMessage() == null ? e.toString() : e.getMessage());
+                return new MasterFxFlow.ExchangeReply(subFlow(new CashPaymentFlow(payout, info.receiver)), null);
+            }
+            OrderBookService.getInstance().settled(id, swap, null);
+            return new MasterFxFlow.ExchangeReply(swap, null);
+        }
+
+        /**
+         * What the fee payment {@code paidFees} paid us, or null if it is not in our storage yet or paid us in more than
+         * one issued currency.
+         */
+        private Amount<Issued<Currency>> receivedFor(SecureHash paidFees) {
+            SignedTransaction tx = getServiceHub().getStorageService().getValidatedTransactions().getTransaction(paidFees);
+            if (tx == null) {
+                return null;
+            }
+
+            CompositeKey me = getServiceHub().getMyInfo().getLegalIdentity().getOwningKey();
+            Amount<Issued<Currency>> received = null;
+            for (TransactionState<ContractState> output : tx.getTx().getOutputs()) {
+                if (!(output.getData() instanceof Cash.State) || !((Cash.State) output.getData()).getOwner().equals(me)) {
+                    continue;
+                }
+                Amount<Issued<Currency>> amount = ((Cash.State) output.getData()).getAmount();
+                if (received != null && !received.getToken().equals(amount.getToken())) {
+                    return null;
+                }
+                received = received == null ? amount : received.plus(amount);
+            }
+            return received;
+        }
+    }
+
+    public static boolean isTrader(NodeInfo nodeInfo) {
+        for (ServiceEntry serviceEntry : nodeInfo.getAdvertisedServices()) {
+            if (serviceEntry.getInfo().component1().getId().equals("tn.fxtrader")) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * The issuer a payout of {@code quantity} in {@code currency} is drawn on, taken from what this node holds: of the
+     * issuers whose cash in {@code currency} covers the payout the one we hold most of, otherwise the one we hold most
+     * of anyway. A node holding none falls back to the first node, by name, advertising {@code corda.issuer.XXX} for
+     * the currency, which with the classic deployment is NodeC.
+     */
+    public static Party issuerOf(ServiceHub serviceHub, Currency currency, long quantity) throws FlowException {
+        CompositeKey me = serviceHub.getMyInfo().getLegalIdentity().getOwningKey();
+        Map<Party, Long> holdings = new HashMap<>();
+        for (StateAndRef<ContractState> stateAndRef : serviceHub.getVaultService().getCurrentVault().getStates()) {
+            ContractState state = stateAndRef.getState().getData();
+            if (state instanceof Cash.State && ((Cash.State) state).getOwner().equals(me)) {
+                Amount<Issued<Currency>> cash = ((Cash.State) state).getAmount();
+                if (cash.getToken().getProduct().equals(currency)) {
+                    holdings.merge(cash.getToken().getIssuer().getParty(), cash.getQuantity(), Long::sum);
+                }
+            }
+        }
+
+        Party best = null;
+        for (Map.Entry<Party, Long> holding : holdings.entrySet()) {
+            boolean covers = holding.getValue() >= quantity;
+            boolean bestCovers = best != null && holdings.get(best) >= quantity;
+            if (best == null || (covers && !bestCovers) || (covers == bestCovers && holding.getValue() > holdings.get(best))) {
+                best = holding.getKey();
+            }
+        }
+        if (best != null) {
+            return best;
+        }
+
+        String service = "corda.issuer." + currency.getCurrencyCode();
+        Party issuer = null;
+        for (NodeInfo nodeInfo : serviceHub.getNetworkMapCache().getPartyNodes()) {
+            for (ServiceEntry serviceEntry : nodeInfo.getAdvertisedServices()) {
+                Party party = nodeInfo.getLegalIdentity();
+                if (serviceEntry.getInfo().getType().getId().equals(service)
+                        && (issuer == null || party.getName().compareTo(issuer.getName()) < 0)) {
+                    issuer = party;
+                }
+            }
+        }
+
+        if (issuer == null) {
+            throw new FlowException("No node advertises " + service);
+        }
+        return issuer;
+    }
+
+    /**
+     * Asks a receiver which currency it wants to be paid in, as {@link MasterFxFlow} does, without moving any cash.
+     * Used by the web tier to quote the currency an exchange will actually pay out in.
+     *
+     * @return the currency code, or null if the receiver names none.
+     */
+    public static class CurrencyRequester extends FlowLogic<String> {
+
+        private final Party receiver;
+
+        public CurrencyRequester(Party receiver) {
+            this.receiver = receiver;
+        }
+
+        @Override
+        @Suspendable
+        public String call() throws FlowException {
+            return receive(List.class, receiver).unwrap(list -> list.isEmpty() ? null : ((Currency) list.get(0)).getCurrencyCode());
+        }
+    }
+
+    /**
+     * Asks a single trader for its current rate, without moving any cash. Used by the web tier to pick the trader a
+     * {@link MasterFxFlow} is routed to.
+     */
+    public static class QuoteRequester extends FlowLogic<Quote> {
+
+        private final Party fxTrader;
+        private final String from;
+        private final String to;
+
+        public QuoteRequester(Party fxTrader, String from, String to) {
+            this.fxTrader = fxTrader;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        @Suspendable
+        public Quote call() throws FlowException {
+            Quote quote = sendAndReceive(Quote.class, fxTrader, new Quote(from, to, null)).unwrap(data -> data);
+
+            if (!from.equals(quote.getFrom()) || !to.equals(quote.getTo())) {
+                throw new FlowException("Quote for the wrong pair: " + quote);
+            }
+            return quote;
+        }
+    }
+
+    public static class QuoteResponder extends FlowLogic<Void> {
+
+        private final Party otherParty;
+
+        public QuoteResponder(Party otherParty) {
+            this.otherParty = otherParty;
+        }
+
+        @Override
+        @Suspendable
+        public Void call() throws FlowException {
+            Quote request = receive(Quote.class, otherParty).unwrap(quote -> quote);
+            send(otherParty, new Quote(request.getFrom(), request.getTo(), currentRate(getServiceHub(), request.getFrom(), request.getTo())));
+            return null;
+        }
+    }
+
+    /**
+     * A rate for {@code from -> to} as a fixed-point long; the request carries no rate, and so does the answer of a
+     * trader that does not quote the pair.
+     */
+    @CordaSerializable
+    public static class Quote {
+        private final String from;
+        private final String to;
+        private final Long scaledRate;
+
+        public Quote(String from, String to, Long scaledRate) {
+            this.from = from;
+            this.to = to;
+            this.scaledRate = scaledRate;
+        }
+
+        public String getFrom() {
+            return from;
+        }
+
+        public String getTo() {
+            return to;
+        }
+
+        public Long getScaledRate() {
+            return scaledRate;
+        }
+
+        @Override
+        public String toString() {
+            return "Quote{" +
+                    "from='" + from + '\'' +
+                    ", to='" + to + '\'' +
+                    ", scaledRate=" + scaledRate +
+                    '}';
+        }
     }
 
-}
+}
\ No newline at end of file
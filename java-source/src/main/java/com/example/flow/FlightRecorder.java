@@ -0,0 +1,183 @@
+package com.example.flow;
+
+import jdk.jfr.Recording;
+import jdk.jfr.RecordingState;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordedStackTrace;
+import jdk.jfr.consumer.RecordingFile;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Java Flight Recorder sessions of the JVM this class is loaded in: the node, when driven by {@link ProfilingFlow},
+ * or the web server, when driven by {@code ProfilingApi} directly. Each preset enables only the events it needs:
+ * <ul>
+ * <li>{@code cpu}: method samples every 10ms;</li>
+ * <li>{@code allocation}: allocations in and outside TLABs, with stack traces;</li>
+ * <li>{@code locks}: monitor enters, waits and parks of 10ms or more, with stack traces.</li>
+ * </ul>
+ * Recordings stop by themselves after {@code example.jfr.maxSeconds} (default 600) and are written to
+ * {@code example.jfr.dir} (default {@code recordings}).
+ * <p>
+ * Needs the {@code jdk.jfr} API, i.e. OpenJDK 8u262 or later.
+ */
+public final class FlightRecorder {
+
+    public static final String CPU = "cpu";
+    public static final String ALLOCATION = "allocation";
+    public static final String LOCKS = "locks";
+
+    private static final Path DIRECTORY = Paths.get(System.getProperty("example.jfr.dir", "recordings"));
+    private static final Duration MAX_DURATION = Duration.ofSeconds(Long.getLong("example.jfr.maxSeconds", 600L));
+    private static final Duration LOCK_THRESHOLD = Duration.ofMillis(10);
+
+    private static final String PACKAGE_PREFIX = "com.example.";
+
+    private static final Map<Long, Recording> recordings = new ConcurrentHashMap<>();
+
+    private FlightRecorder() {
+    }
+
+    /**
+     * @return the id of the new recording.
+     */
+    public static long start(String preset) throws IOException {
+        Files.createDirectories(DIRECTORY);
+
+        Recording recording = new Recording();
+        switch (preset) {
+            case CPU:
+                recording.enable("jdk.ExecutionSample").withPeriod(Duration.ofMillis(10));
+                break;
+            case ALLOCATION:
+                recording.enable("jdk.ObjectAllocationInNewTLAB").withStackTrace();
+                recording.enable("jdk.ObjectAllocationOutsideTLAB").withStackTrace();
+                break;
+            case LOCKS:
+                recording.enable("jdk.JavaMonitorEnter").withThreshold(LOCK_THRESHOLD).withStackTrace();
+                recording.enable("jdk.JavaMonitorWait").withThreshold(LOCK_THRESHOLD).withStackTrace();
+                recording.enable("jdk.ThreadPark").withThreshold(LOCK_THRESHOLD).withStackTrace();
+                break;
+            default:
+                recording.close();
+                throw new IllegalArgumentException("Unknown preset " + preset + ", expected one of " + Arrays.asList(CPU, ALLOCATION, LOCKS));
+        }
+
+        recording.setName("example-" + preset);
+        recording.setToDisk(true);
+        recording.setDuration(MAX_DURATION);
+        recording.setDestination(DIRECTORY.resolve("example-" + preset + "-" + System.currentTimeMillis() + ".jfr"));
+        recording.start();
+
+        recordings.put(recording.getId(), recording);
+        return recording.getId();
+    }
+
+    /**
+     * Stops the recording if it is still running.
+     *
+     * @return the file it was written to.
+     */
+    public static Path stop(long id) {
+        Recording recording = get(id);
+        if (recording.getState() == RecordingState.RUNNING || recording.getState() == RecordingState.DELAYED) {
+            recording.stop();
+        }
+        return recording.getDestination();
+    }
+
+    public static Path file(long id) {
+        Recording recording = get(id);
+        if (recording.getState() != RecordingState.STOPPED) {
+            throw new IllegalStateException("Recording " + id + " is " + recording.getState() + ", stop it first");
+        }
+        return recording.getDestination();
+    }
+
+    /**
+     * Id, preset, state and file of every recording started in this JVM.
+     */
+    public static List<Map<String, Object>> list() {
+        List<Map<String, Object>> result = new ArrayList<>();
+        for (Recording recording : recordings.values()) {
+            Map<String, Object> info = new LinkedHashMap<>();
+            info.put("id", recording.getId());
+            info.put("name", recording.getName());
+            info.put("state", recording.getState().name());
+            info.put("startTime", recording.getStartTime() == null ? null : recording.getStartTime().toEpochMilli());
+            info.put("file", recording.getDestination().toString());
+            result.add(info);
+        }
+        return result;
+    }
+
+    /**
+     * Attributes every sample, allocation or lock event of a stopped recording to the innermost frame in the CorDapp's
+     * packages on its stack and adds up its weight there: samples for {@code cpu}, bytes for {@code allocation} and
+     * nanoseconds blocked for {@code locks}. Events with no such frame are left out.
+     *
+     * The file is read one event at a time, so only the per-frame totals are held in memory.
+     *
+     * @return the {@code limit} heaviest frames, heaviest first, as {@code class.method:line}.
+     */
+    public static LinkedHashMap<String, Long> topFrames(long id, int limit) throws IOException {
+        Map<String, Long> weights = new HashMap<>();
+        try (RecordingFile recording = new RecordingFile(file(id))) {
+            while (recording.hasMoreEvents()) {
+                RecordedEvent event = recording.readEvent();
+                String frame = cordappFrame(event.getStackTrace());
+                if (frame != null) {
+                    weights.merge(frame, weight(event), Long::sum);
+                }
+            }
+        }
+
+        LinkedHashMap<String, Long> top = new LinkedHashMap<>();
+        weights.entrySet().stream()
+                .sorted(Map.Entry.<String, Long>comparingByValue().reversed())
+                .limit(limit)
+                .forEach(entry -> top.put(entry.getKey(), entry.getValue()));
+        return top;
+    }
+
+    private static Recording get(long id) {
+        Recording recording = recordings.get(id);
+        if (recording == null) {
+            throw new IllegalArgumentException("No recording " + id);
+        }
+        return recording;
+    }
+
+    private static String cordappFrame(RecordedStackTrace stackTrace) {
+        if (stackTrace == null) {
+            return null;
+        }
+        for (RecordedFrame frame : stackTrace.getFrames()) {
+            String type = frame.getMethod().getType().getName();
+            if (type.startsWith(PACKAGE_PREFIX)) {
+                return type + "." + frame.getMethod().getName() + ":" + frame.getLineNumber();
+            }
+        }
+        return null;
+    }
+
+    private static long weight(RecordedEvent event) {
+        switch (event.getEventType().getName()) {
+            case "jdk.ObjectAllocationInNewTLAB":
+                return event.getLong("tlabSize");
+            case "jdk.ObjectAllocationOutsideTLAB":
+                return event.getLong("allocationSize");
+            case "jdk.ExecutionSample":
+                return 1;
+            default:
+                return event.getDuration().toNanos();
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package com.example.flow;
+
+import co.paralleluniverse.fibers.Suspendable;
+import net.corda.contracts.asset.Cash;
+import net.corda.core.contracts.*;
+import net.corda.core.crypto.CompositeKey;
+import net.corda.core.crypto.Party;
+import net.corda.core.flows.FlowException;
+import net.corda.core.flows.FlowLogic;
+import net.corda.core.serialization.CordaSerializable;
+import net.corda.core.transactions.SignedTransaction;
+import net.corda.core.transactions.TransactionBuilder;
+import net.corda.flows.FinalityFlow;
+
+import java.util.*;
+
+/**
+ * Pays several recipients, possibly in several currencies, with a single transaction that is signed and notarised
+ * once. Coins are selected for all legs in one pass over the vault: each issued currency gets enough of our cash
+ * states to cover the sum of its legs, and whatever is left over comes back to us as one change state per currency.
+ */
+public class MultiPaymentFlow extends FlowLogic<SignedTransaction> {
+
+    private final List<PaymentLeg> legs;
+
+    public MultiPaymentFlow(List<PaymentLeg> legs) {
+        this.legs = legs;
+    }
+
+    @Override
+    @Suspendable
+    public SignedTransaction call() throws FlowException {
+        if (legs.isEmpty()) {
+            throw new FlowException("Nothing to pay");
+        }
+
+        SignedTransaction tx = buildAndSign();
+
+        Set<Party> recipients = new HashSet<>();
+        for (PaymentLeg leg : legs) {
+            recipients.add(leg.getRecipient());
+        }
+        subFlow(new FinalityFlow(tx, recipients));
+
+        return tx;
+    }
+
+    private SignedTransaction buildAndSign() throws FlowException {
+        CompositeKey me = getServiceHub().getMyInfo().getLegalIdentity().getOwningKey();
+
+        Map<Issued<Currency>, Long> required = new LinkedHashMap<>();
+        for (PaymentLeg leg : legs) {
+            if (leg.getAmount().getQuantity() <= 0) {
+                throw new FlowException("Leg amounts must be positive: " + leg);
+            }
+            required.merge(leg.getAmount().getToken(), leg.getAmount().getQuantity(), Math::addExact);
+        }
+
+        Map<Issued<Currency>, List<StateAndRef<Cash.State>>> selected = new HashMap<>();
+        Map<Issued<Currency>, Long> gathered = new HashMap<>();
+        Party notary = null;
+
+        for (StateAndRef<ContractState> stateAndRef : getServiceHub().getVaultService().getCurrentVault().getStates()) {
+            if (!(stateAndRef.getState().getData() instanceof Cash.State)) {
+                continue;
+            }
+            Cash.State cash = (Cash.State) stateAndRef.getState().getData();
+            Issued<Currency> token = cash.getAmount().getToken();
+            Long needed = required.get(token);
+            if (needed == null || !cash.getOwner().equals(me) || gathered.getOrDefault(token, 0L) >= needed) {
+                continue;
+            }
+            if (notary == null) {
+                notary = stateAndRef.getState().getNotary();
+            } else if (!notary.equals(stateAndRef.getState().getNotary())) {
+                continue;
+            }
+
+            @SuppressWarnings("unchecked")
+            StateAndRef<Cash.State> coin = (StateAndRef<Cash.State>) (StateAndRef<?>) stateAndRef;
+            selected.computeIfAbsent(token, t -> new ArrayList<>()).add(coin);
+            gathered.merge(token, cash.getAmount().getQuantity(), Math::addExact);
+        }
+
+        for (Map.Entry<Issued<Currency>, Long> entry : required.entrySet()) {
+            long available = gathered.getOrDefault(entry.getKey(), 0L);
+            if (available < entry.getValue()) {
+                throw new FlowException("Insufficient balance of " + entry.getKey() + ": need " + entry.getValue() + ", have " + available);
+            }
+        }
+
+        TransactionBuilder builder = new TransactionType.General.Builder(notary);
+        for (List<StateAndRef<Cash.State>> coins : selected.values()) {
+            for (StateAndRef<Cash.State> coin : coins) {
+                builder.addInputState(coin);
+            }
+        }
+        for (PaymentLeg leg : legs) {
+            builder.addOutputState(new Cash.State(leg.getAmount(), leg.getRecipient().getOwningKey()));
+        }
+        for (Map.Entry<Issued<Currency>, Long> entry : required.entrySet()) {
+            long change = gathered.get(entry.getKey()) - entry.getValue();
+            if (change > 0) {
+                builder.addOutputState(new Cash.State(new Amount<>(change, entry.getKey()), me));
+            }
+        }
+        builder.addCommand(new Cash.Commands.Move(), me);
+
+        builder.signWith(getServiceHub().getLegalIdentityKey());
+        return builder.toSignedTransaction(false);
+    }
+
+    @CordaSerializable
+    public static class PaymentLeg {
+        private final Party recipient;
+        private final Amount<Issued<Currency>> amount;
+
+        public PaymentLeg(Party recipient, Amount<Issued<Currency>> amount) {
+            this.recipient = recipient;
+            this.amount = amount;
+        }
+
+        public Party getRecipient() {
+            return recipient;
+        }
+
+        public Amount<Issued<Currency>> getAmount() {
+            return amount;
+        }
+
+        @Override
+        public String toString() {
+            return "PaymentLeg{" +
+                    "recipient=" + recipient +
+                    ", amount=" + amount +
+                    '}';
+        }
+    }
+}
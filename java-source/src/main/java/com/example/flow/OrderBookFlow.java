@@ -0,0 +1,118 @@
+package com.example.flow;
+
+import co.paralleluniverse.fibers.Suspendable;
+import com.example.service.OrderBookService;
+import net.corda.core.contracts.Amount;
+import net.corda.core.contracts.Issued;
+import net.corda.core.crypto.Party;
+import net.corda.core.crypto.SecureHash;
+import net.corda.core.flows.FlowException;
+import net.corda.core.flows.FlowLogic;
+import net.corda.core.node.services.VaultService;
+import net.corda.core.transactions.SignedTransaction;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Currency;
+
+/**
+ * Flows of a trader's {@link OrderBookService}. The book keeps its orders as notes on their fee transactions, and
+ * these flows provide the database transaction reading and writing them needs: {@link PayOut} pays a resting order out
+ * on its own, {@link Restore} reads the orders back after a restart, and {@link StatusRequester} lets the node that
+ * placed an exchange ask what became of it.
+ */
+public class OrderBookFlow {
+
+    /**
+     * Pays the order whose fee transaction is {@code order} out on its own and notes the payout on the order. Does
+     * nothing if the order is already noted as paid, e.g. by a swap that finished while this payout was waiting.
+     *
+     * @return the payout, or null if it failed; the failure is noted on the order and the book tries again later.
+     */
+    public static class PayOut extends FlowLogic<SignedTransaction> {
+
+        private final SecureHash order;
+        private final Party receiver;
+        private final Amount<Issued<Currency>> payout;
+
+        public PayOut(SecureHash order, Party receiver, Amount<Issued<Currency>> payout) {
+            this.order = order;
+            this.receiver = receiver;
+            this.payout = payout;
+        }
+
+        @Override
+        @Suspendable
+        public SignedTransaction call() throws FlowException {
+            VaultService vault = getServiceHub().getVaultService();
+            SecureHash paid = OrderBookService.paidIn(vault.getTransactionNotes(order));
+            if (paid != null) {
+                return getServiceHub().getStorageService().getValidatedTransactions().getTransaction(paid);
+            }
+
+            SignedTransaction tx;
+            try {
+                tx = subFlow(new MultiPaymentFlow(new ArrayList<>(Collections.singletonList(new MultiPaymentFlow.PaymentLeg(receiver, payout)))));
+            } catch (FlowException | RuntimeException e) {
+                vault.addNoteToTransaction(order, OrderBookService.failedNote(e.getMessage() == null ? e.toString() : e.getMessage()));
+                return null;
+            }
+            vault.addNoteToTransaction(order, OrderBookService.paidNote(tx.getId()));
+            return tx;
+        }
+    }
+
+    /**
+     * Puts the orders that were not paid out before the node stopped back into the book, see
+     * {@link OrderBookService#restore()}.
+     *
+     * @return the number of orders restored.
+     */
+    public static class Restore extends FlowLogic<Integer> {
+
+        @Override
+        @Suspendable
+        public Integer call() throws FlowException {
+            return OrderBookService.getInstance().restore();
+        }
+    }
+
+    /**
+     * Asks {@code trader} what became of the exchange whose fees this node paid in {@code order}, as
+     * {@link OrderBookService#status(SecureHash, Party)} describes it.
+     */
+    public static class StatusRequester extends FlowLogic<String> {
+
+        private final Party trader;
+        private final SecureHash order;
+
+        public StatusRequester(Party trader, SecureHash order) {
+            this.trader = trader;
+            this.order = order;
+        }
+
+        @Override
+        @Suspendable
+        public String call() throws FlowException {
+            return sendAndReceive(String.class, trader, order).unwrap(status -> status);
+        }
+    }
+
+    public static class StatusResponder extends FlowLogic<Void> {
+
+        private final Party otherParty;
+
+        public StatusResponder(Party otherParty) {
+            this.otherParty = otherParty;
+        }
+
+        @Override
+        @Suspendable
+        public Void call() throws FlowException {
+            SecureHash order = receive(SecureHash.class, otherParty).unwrap(id -> id);
+            OrderBookService book = OrderBookService.getInstance();
+            send(otherParty, book == null ? "unknown" : book.status(order, otherParty));
+            return null;
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.example.flow;
+
+import co.paralleluniverse.fibers.Suspendable;
+import net.corda.core.flows.FlowException;
+import net.corda.core.flows.FlowLogic;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+
+/**
+ * Drives {@link FlightRecorder} inside the node. These flows are admin operations: only RPC users granted
+ * {@code StartFlow.com.example.flow.ProfilingFlow$...} (or {@code ALL}) can start them, which is also what the web
+ * server's profiling endpoints rely on to tell admins apart, see {@link Authorize}.
+ */
+public class ProfilingFlow {
+
+    private static final int MAX_FETCH_BYTES = Integer.getInteger("example.jfr.maxFetchBytes", 32 * 1024 * 1024);
+
+    /**
+     * Does nothing; starting it succeeds only for RPC users allowed to profile.
+     */
+    public static class Authorize extends FlowLogic<Boolean> {
+
+        @Override
+        @Suspendable
+        public Boolean call() throws FlowException {
+            return true;
+        }
+    }
+
+    public static class Start extends FlowLogic<Long> {
+
+        private final String preset;
+
+        public Start(String preset) {
+            this.preset = preset;
+        }
+
+        @Override
+        @Suspendable
+        public Long call() throws FlowException {
+            try {
+                return FlightRecorder.start(preset);
+            } catch (IOException | IllegalArgumentException e) {
+                throw new FlowException("Could not start a " + preset + " recording: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * @return the path of the recording on the node.
+     */
+    public static class Stop extends FlowLogic<String> {
+
+        private final long id;
+
+        public Stop(Long id) {
+            this.id = id;
+        }
+
+        @Override
+        @Suspendable
+        public String call() throws FlowException {
+            try {
+                return FlightRecorder.stop(id).toString();
+            } catch (IllegalArgumentException e) {
+                throw new FlowException(e.getMessage());
+            }
+        }
+    }
+
+    public static class TopFrames extends FlowLogic<LinkedHashMap<String, Long>> {
+
+        private final long id;
+        private final int limit;
+
+        public TopFrames(Long id, Integer limit) {
+            this.id = id;
+            this.limit = limit;
+        }
+
+        @Override
+        @Suspendable
+        public LinkedHashMap<String, Long> call() throws FlowException {
+            try {
+                return FlightRecorder.topFrames(id, limit);
+            } catch (IOException | RuntimeException e) {
+                throw new FlowException("Could not read recording " + id + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * @return the recording file, if it is no bigger than {@code example.jfr.maxFetchBytes} (default 32MB).
+     */
+    public static class Fetch extends FlowLogic<byte[]> {
+
+        private final long id;
+
+        public Fetch(Long id) {
+            this.id = id;
+        }
+
+        @Override
+        @Suspendable
+        public byte[] call() throws FlowException {
+            try {
+                Path file = FlightRecorder.file(id);
+                if (Files.size(file) > MAX_FETCH_BYTES) {
+                    throw new FlowException("Recording " + id + " is larger than " + MAX_FETCH_BYTES + " bytes, copy " + file + " from the node instead");
+                }
+                return Files.readAllBytes(file);
+            } catch (IOException | RuntimeException e) {
+                throw new FlowException("Could not read recording " + id + ": " + e.getMessage());
+            }
+        }
+    }
+}
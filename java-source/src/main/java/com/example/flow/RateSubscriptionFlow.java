@@ -0,0 +1,245 @@
+package com.example.flow;
+
+import co.paralleluniverse.fibers.Suspendable;
+import com.example.api.ExampleApi;
+import com.example.models.CurrencyRate;
+import com.example.models.RateHistory;
+import com.example.models.RatePoint;
+import com.example.service.RateHistoryService;
+import com.example.service.RateSubscriptionService;
+import com.fasterxml.jackson.core.type.TypeReference;
+import net.corda.core.crypto.Party;
+import net.corda.core.crypto.SecureHash;
+import net.corda.core.flows.FlowException;
+import net.corda.core.flows.FlowLogic;
+import net.corda.core.serialization.CordaSerializable;
+import net.corda.jackson.JacksonSupport;
+
+import java.util.*;
+
+/**
+ * Flows that let a node follow a trader's rates without asking for them. A node registers with
+ * {@link Subscribe} and gets the trader's current table back; from then on the trader's
+ * {@link RateSubscriptionService} pushes every rate change, coalesced per pair, with {@link PushRates}. The
+ * subscriber keeps what it receives in a local read-only table, readable with {@link ReadSubscribedRates}.
+ * <p>
+ * Subscriptions do not survive a restart of either side; see {@link RateSubscriptionService} for when to subscribe
+ * again.
+ */
+public class RateSubscriptionFlow {
+
+    /**
+     * Registers this node for the rates of {@code trader}. Subscribing again is harmless and refreshes the whole
+     * table.
+     *
+     * @return the number of pairs in the trader's table at the time of subscribing.
+     */
+    public static class Subscribe extends FlowLogic<Integer> {
+
+        private final Party trader;
+
+        public Subscribe(Party trader) {
+            this.trader = trader;
+        }
+
+        @Override
+        @Suspendable
+        public Integer call() throws FlowException {
+            // Pushes may overtake the snapshot, so they have to be accepted before asking for it. The sequence numbers
+            // keep whichever of the two is newer.
+            RateSubscriptionService.getInstance().addTrader(trader);
+            RateBatch snapshot = sendAndReceive(RateBatch.class, trader, "subscribe").unwrap(batch -> batch);
+            RateSubscriptionService.getInstance().apply(trader, snapshot);
+            return snapshot.getRates().size();
+        }
+    }
+
+    public static class SubscribeResponder extends FlowLogic<Void> {
+
+        private final Party otherParty;
+
+        public SubscribeResponder(Party otherParty) {
+            this.otherParty = otherParty;
+        }
+
+        @Override
+        @Suspendable
+        public Void call() throws FlowException {
+            receive(String.class, otherParty).unwrap(request -> request);
+
+            // Taken before reading the table, so that every push up to it is older than the table.
+            long sequence = RateSubscriptionService.getInstance().snapshotSequence();
+            HashMap<String, Long> rates = new HashMap<>();
+            try {
+                String ratesJson = ExampleApi.getLastElement(getServiceHub().getVaultService().getTransactionNotes(SecureHash.sha256("rates")));
+                Set<CurrencyRate> table = JacksonSupport.createNonRpcMapper().readValue(ratesJson, new TypeReference<Set<CurrencyRate>>() {
+                });
+                for (CurrencyRate rate : table) {
+                    rates.put(pair(rate.getFrom(), rate.getTo()), RateHistory.toScaled(rate.getRate()));
+                }
+            } catch (Exception e) {
+                System.out.println("no rate table: " + e.getMessage());
+            }
+
+            RateSubscriptionService.getInstance().addSubscriber(otherParty);
+            send(otherParty, new RateBatch(rates, sequence));
+            return null;
+        }
+    }
+
+    /**
+     * Started over RPC by the trader's web tier whenever a rate is set; records it in the pair's history through the
+     * {@link RateHistoryService} and hands the change to the local {@link RateSubscriptionService}, which batches it
+     * for the subscribers.
+     */
+    public static class PublishRate extends FlowLogic<Void> {
+
+        private final String from;
+        private final String to;
+        private final long time;
+        private final long scaledRate;
+
+        public PublishRate(String from, String to, Long time, Long scaledRate) {
+            this.from = from;
+            this.to = to;
+            this.time = time;
+            this.scaledRate = scaledRate;
+        }
+
+        @Override
+        @Suspendable
+        public Void call() throws FlowException {
+            RateHistoryService.getInstance().record(from, to, time, scaledRate);
+            RateSubscriptionService.getInstance().publish(pair(from, to), scaledRate);
+            return null;
+        }
+    }
+
+    /**
+     * Started by the trader's {@link RateSubscriptionService} only; it is not startable over RPC.
+     */
+    public static class PushRates extends FlowLogic<Void> {
+
+        private final Party subscriber;
+        private final RateBatch batch;
+
+        public PushRates(Party subscriber, RateBatch batch) {
+            this.subscriber = subscriber;
+            this.batch = batch;
+        }
+
+        @Override
+        @Suspendable
+        public Void call() throws FlowException {
+            send(subscriber, batch);
+            return null;
+        }
+    }
+
+    public static class PushRatesResponder extends FlowLogic<Void> {
+
+        private final Party otherParty;
+
+        public PushRatesResponder(Party otherParty) {
+            this.otherParty = otherParty;
+        }
+
+        @Override
+        @Suspendable
+        public Void call() throws FlowException {
+            RateBatch batch = receive(RateBatch.class, otherParty).unwrap(data -> data);
+            if (!RateSubscriptionService.getInstance().apply(otherParty, batch)) {
+                System.out.println("ignoring rates pushed by " + otherParty.getName() + ", which this node has not subscribed to");
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Reads this node's copy of the rates of every trader it subscribed to, keyed by trader name.
+     */
+    public static class ReadSubscribedRates extends FlowLogic<HashMap<String, RateBatch>> {
+
+        @Override
+        @Suspendable
+        public HashMap<String, RateBatch> call() throws FlowException {
+            return RateSubscriptionService.getInstance().getSubscribedRates();
+        }
+    }
+
+    /**
+     * Reads the points of a pair's history in {@code [since, until]} from the trader's {@link RateHistoryService}.
+     */
+    public static class ReadRateHistory extends FlowLogic<List<RatePoint>> {
+
+        private final String from;
+        private final String to;
+        private final long since;
+        private final long until;
+
+        public ReadRateHistory(String from, String to, Long since, Long until) {
+            this.from = from;
+            this.to = to;
+            this.since = since;
+            this.until = until;
+        }
+
+        @Override
+        @Suspendable
+        public List<RatePoint> call() throws FlowException {
+            return new ArrayList<>(RateHistoryService.getInstance().range(from, to, since, until));
+        }
+    }
+
+    /**
+     * Reads the point of a pair's history in force at {@code time} from the trader's {@link RateHistoryService}.
+     *
+     * @return null if the pair had no rate yet.
+     */
+    public static class ReadRateAsOf extends FlowLogic<RatePoint> {
+
+        private final String from;
+        private final String to;
+        private final long time;
+
+        public ReadRateAsOf(String from, String to, Long time) {
+            this.from = from;
+            this.to = to;
+            this.time = time;
+        }
+
+        @Override
+        @Suspendable
+        public RatePoint call() throws FlowException {
+            return RateHistoryService.getInstance().pointAsOf(from, to, time);
+        }
+    }
+
+    public static String pair(String from, String to) {
+        return from.toUpperCase() + "/" + to.toUpperCase();
+    }
+
+    /**
+     * Fixed-point rates (see {@link RateHistory#SCALE}) keyed by {@code FROM/TO}: a full table on subscription, only
+     * the changed pairs afterwards. The sequence number orders the batches of one trader, see
+     * {@link RateSubscriptionService}.
+     */
+    @CordaSerializable
+    public static class RateBatch {
+        private final HashMap<String, Long> rates;
+        private final long sequence;
+
+        public RateBatch(HashMap<String, Long> rates, long sequence) {
+            this.rates = rates;
+            this.sequence = sequence;
+        }
+
+        public HashMap<String, Long> getRates() {
+            return rates;
+        }
+
+        public long getSequence() {
+            return sequence;
+        }
+    }
+}
@@ -14,6 +14,8 @@ public class CurrencyRate {
     private String to;
     @JsonProperty
     private float rate;
+    @JsonProperty
+    private long timestamp;
 
     public CurrencyRate() {
 
@@ -25,6 +27,11 @@ public class CurrencyRate {
         this.rate = rate;
     }
 
+    public CurrencyRate(String from, String to, float rate, long timestamp) {
+        this(from, to, rate);
+        this.timestamp = timestamp;
+    }
+
     public String getFrom() {
         return from.toUpperCase();
     }
@@ -49,6 +56,14 @@ public class CurrencyRate {
         this.rate = rate;
     }
 
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public void setTimestamp(long timestamp) {
+        this.timestamp = timestamp;
+    }
+
 
     @Override
     public boolean equals(Object o) {
@@ -0,0 +1,103 @@
+package com.example.models;
+
+import net.corda.core.contracts.Amount;
+import net.corda.core.contracts.Issued;
+
+import java.math.RoundingMode;
+import java.util.Currency;
+
+/**
+ * Applies fixed-point rates (longs scaled by {@link RateHistory#SCALE}) to amounts with exact integer arithmetic. The
+ * product is never formed as a float or a {@code BigDecimal}: the quantity and the rate are both split into their
+ * whole and fractional multiples of the scale so the intermediate products stay within a long for any rate, including
+ * large-unit pairs such as USD to IDR, and the discarded fraction is rounded with an explicit {@link RoundingMode}. Results that do not fit in a long throw {@link ArithmeticException}.
+ * <p>
+ * The array variant converts in place or into a caller-supplied buffer and allocates nothing, for netting and
+ * reporting over many amounts.
+ */
+public final class FixedPointConverter {
+
+    private static final long SCALE = RateHistory.SCALE;
+
+    private FixedPointConverter() {
+    }
+
+    /**
+     * @return {@code quantity * scaledRate / SCALE}, rounded with {@code mode}.
+     */
+    public static long apply(long quantity, long scaledRate, RoundingMode mode) {
+        long whole = Math.floorDiv(quantity, SCALE);
+        long fraction = Math.floorMod(quantity, SCALE);
+        long wholeRate = Math.floorDiv(scaledRate, SCALE);
+        long fractionRate = Math.floorMod(scaledRate, SCALE);
+
+        // quantity * scaledRate / SCALE = whole * wholeRate * SCALE + whole * fractionRate + fraction * wholeRate
+        //                                 + fraction * fractionRate / SCALE
+        // where only the last term, below 1e16, has a fractional part.
+        long fractionProduct = fraction * fractionRate;
+        long result = Math.multiplyExact(Math.multiplyExact(whole, wholeRate), SCALE);
+        result = Math.addExact(result, Math.multiplyExact(whole, fractionRate));
+        result = Math.addExact(result, Math.multiplyExact(fraction, wholeRate));
+        result = Math.addExact(result, fractionProduct / SCALE);
+        long remainder = fractionProduct % SCALE;
+
+        return remainder == 0 ? result : Math.addExact(result, roundUp(result, remainder, mode) ? 1 : 0);
+    }
+
+    /**
+     * Converts {@code amount} into {@code target} at {@code scaledRate}.
+     */
+    public static Amount<Issued<Currency>> convert(Amount<Issued<Currency>> amount, long scaledRate, Issued<Currency> target, RoundingMode mode) {
+        return new Amount<>(apply(amount.getQuantity(), scaledRate, mode), target);
+    }
+
+    /**
+     * Converts {@code length} quantities starting at {@code offset} of {@code quantities} into the same positions of
+     * {@code out}, which may be {@code quantities} itself.
+     */
+    public static void apply(long[] quantities, int offset, int length, long scaledRate, RoundingMode mode, long[] out) {
+        for (int i = offset; i < offset + length; i++) {
+            out[i] = apply(quantities[i], scaledRate, mode);
+        }
+    }
+
+    /**
+     * @return the sum of {@code quantities[offset, offset + length)} each converted at {@code scaledRate}; rounding
+     * happens per quantity, as it would when each was paid out separately.
+     */
+    public static long applyAndSum(long[] quantities, int offset, int length, long scaledRate, RoundingMode mode) {
+        long sum = 0;
+        for (int i = offset; i < offset + length; i++) {
+            sum = Math.addExact(sum, apply(quantities[i], scaledRate, mode));
+        }
+        return sum;
+    }
+
+    /**
+     * Whether the floor {@code result} has to move up by one, given the non-zero remainder out of {@code SCALE} that
+     * was dropped.
+     */
+    private static boolean roundUp(long result, long remainder, RoundingMode mode) {
+        long twice = remainder * 2;
+        boolean negative = result < 0;
+        switch (mode) {
+            case FLOOR:
+                return false;
+            case CEILING:
+                return true;
+            case DOWN:
+                return negative;
+            case UP:
+                return !negative;
+            case HALF_UP:
+                return twice > SCALE || (twice == SCALE && !negative);
+            case HALF_DOWN:
+                return twice > SCALE || (twice == SCALE && negative);
+            case HALF_EVEN:
+                return twice > SCALE || (twice == SCALE && (result & 1) != 0);
+            case UNNECESSARY:
+            default:
+                throw new ArithmeticException("Rounding necessary");
+        }
+    }
+}
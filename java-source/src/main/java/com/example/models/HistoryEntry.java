@@ -0,0 +1,42 @@
+package com.example.models;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * One transaction of a history query: what it moved in one currency. A transaction that moved several currencies
+ * shows up once per currency. The timestamp is the transaction's own, else when it arrived, and null for backfilled
+ * transactions without one.
+ */
+public class HistoryEntry {
+    @JsonProperty
+    private final String txHash;
+    @JsonProperty
+    private final Long timestamp;
+    @JsonProperty
+    private final String currency;
+    @JsonProperty
+    private final long quantity;
+
+    public HistoryEntry(String txHash, Long timestamp, String currency, long quantity) {
+        this.txHash = txHash;
+        this.timestamp = timestamp;
+        this.currency = currency;
+        this.quantity = quantity;
+    }
+
+    public String getTxHash() {
+        return txHash;
+    }
+
+    public Long getTimestamp() {
+        return timestamp;
+    }
+
+    public String getCurrency() {
+        return currency;
+    }
+
+    public long getQuantity() {
+        return quantity;
+    }
+}
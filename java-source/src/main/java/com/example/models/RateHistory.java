@@ -0,0 +1,218 @@
+package com.example.models;
+
+import net.corda.core.crypto.SecureHash;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * The rates quoted for one currency pair over time, held as two parallel primitive arrays sorted by time: epoch
+ * millis and the rate as a fixed-point long scaled by {@link #SCALE}.
+ * <p>
+ * Each observation is persisted as its own vault transaction note under {@link #noteKey(String, String, int)}, so both
+ * the web API and flows can rebuild the history with {@link #load(Function, String, String)}. The notes of a pair are
+ * written in generations: once a generation holds {@link #NOTES_PER_GENERATION} notes, the {@link #compact()}ed
+ * history is written as the next one and only that is read from then on.
+ * <p>
+ * Compaction never changes the rate in force at any time it still covers, so as-of lookups stay exact; it only gives
+ * up the oldest points when more than {@link #MAX_POINTS} (default 10000, {@code example.rates.maxPoints}) differ.
+ */
+public class RateHistory {
+
+    /**
+     * Number of fixed-point units in 1.0, i.e. rates keep eight decimal places.
+     */
+    public static final long SCALE = 100_000_000L;
+
+    public static final int MAX_POINTS = Integer.getInteger("example.rates.maxPoints", 10_000);
+
+    public static final int NOTES_PER_GENERATION = 2 * MAX_POINTS;
+
+    private long[] times;
+    private long[] rates;
+    private int size;
+
+    public RateHistory() {
+        this(16);
+    }
+
+    public RateHistory(int capacity) {
+        this.times = new long[Math.max(capacity, 1)];
+        this.rates = new long[Math.max(capacity, 1)];
+    }
+
+    /**
+     * The key of the notes of one generation of a pair's history. Generation 0 uses the key histories were first
+     * written under.
+     */
+    public static SecureHash noteKey(String from, String to, int generation) {
+        String key = "rates/history/" + from.toUpperCase() + "/" + to.toUpperCase();
+        return SecureHash.sha256(generation == 0 ? key : key + "/" + generation);
+    }
+
+    /**
+     * The key of the notes recording each generation a pair's history moved to; the highest is the current one.
+     */
+    public static SecureHash generationKey(String from, String to) {
+        return SecureHash.sha256("rates/history/" + from.toUpperCase() + "/" + to.toUpperCase() + "/generation");
+    }
+
+    public static int generation(Iterable<String> generationNotes) {
+        int generation = 0;
+        for (String note : generationNotes) {
+            try {
+                generation = Math.max(generation, Integer.parseInt(note));
+            } catch (NumberFormatException e) {
+                System.out.println("skipping generation note: " + note);
+            }
+        }
+        return generation;
+    }
+
+    /**
+     * Reads the current generation of a pair's history through {@code notes}, which looks up the vault notes of a key.
+     */
+    public static RateHistory load(Function<SecureHash, Iterable<String>> notes, String from, String to) {
+        int generation = generation(notes.apply(generationKey(from, to)));
+        return fromNotes(notes.apply(noteKey(from, to, generation)));
+    }
+
+    public static String toNote(long time, long scaledRate) {
+        return time + ":" + scaledRate;
+    }
+
+    /**
+     * Rebuilds a history from the notes written by {@link #toNote(long, long)}, ignoring any that do not parse. Every
+     * point is kept as written.
+     */
+    public static RateHistory fromNotes(Iterable<String> notes) {
+        RateHistory history = new RateHistory();
+        for (String note : notes) {
+            int separator = note.indexOf(':');
+            if (separator <= 0) {
+                continue;
+            }
+            try {
+                history.add(Long.parseLong(note.substring(0, separator)), Long.parseLong(note.substring(separator + 1)));
+            } catch (NumberFormatException e) {
+                System.out.println("skipping rate note: " + note);
+            }
+        }
+        return history;
+    }
+
+    public static long toScaled(float rate) {
+        return toScaled(new BigDecimal(Float.toString(rate)));
+    }
+
+    public static long toScaled(BigDecimal rate) {
+        return rate.movePointRight(8).setScale(0, RoundingMode.HALF_EVEN).longValueExact();
+    }
+
+    public static BigDecimal fromScaled(long scaledRate) {
+        return BigDecimal.valueOf(scaledRate, 8);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long timeAt(int index) {
+        return times[index];
+    }
+
+    public long rateAt(int index) {
+        return rates[index];
+    }
+
+    /**
+     * Records a rate observed at {@code time}. Appending in time order is the cheap path; older observations are
+     * inserted in place and an observation at an already known time replaces it.
+     */
+    public void add(long time, long scaledRate) {
+        int index = search(time);
+        if (index >= 0) {
+            rates[index] = scaledRate;
+            return;
+        }
+
+        int insertAt = -index - 1;
+        if (size == times.length) {
+            int capacity = times.length * 2;
+            times = Arrays.copyOf(times, capacity);
+            rates = Arrays.copyOf(rates, capacity);
+        }
+        System.arraycopy(times, insertAt, times, insertAt + 1, size - insertAt);
+        System.arraycopy(rates, insertAt, rates, insertAt + 1, size - insertAt);
+        times[insertAt] = time;
+        rates[insertAt] = scaledRate;
+        size++;
+
+        if (size > MAX_POINTS) {
+            compact();
+        }
+    }
+
+    /**
+     * @return the index of the last observation at or before {@code time}, or -1 if there is none.
+     */
+    public int indexAsOf(long time) {
+        int index = search(time);
+        return index >= 0 ? index : -index - 2;
+    }
+
+    /**
+     * @return the fixed-point rate in force at {@code time}, or {@code fallback} if the pair had no rate yet.
+     */
+    public long rateAsOf(long time, long fallback) {
+        int index = indexAsOf(time);
+        return index < 0 ? fallback : rates[index];
+    }
+
+    /**
+     * @return the observations in {@code [from, to]}, preceded by the one in force at {@code from} if it is older.
+     */
+    public List<RatePoint> range(long from, long to) {
+        int start = Math.max(indexAsOf(from), 0);
+        List<RatePoint> points = new ArrayList<>();
+        for (int i = start; i < size && times[i] <= to; i++) {
+            points.add(new RatePoint(times[i], fromScaled(rates[i])));
+        }
+        return points;
+    }
+
+    /**
+     * Drops every observation that repeats the rate before it, which changes no as-of answer, then the oldest ones
+     * while more than {@link #MAX_POINTS} are left. Lookups before the oldest point kept find no rate rather than a
+     * wrong one.
+     */
+    public void compact() {
+        int write = 0;
+        for (int read = 0; read < size; read++) {
+            if (write == 0 || rates[read] != rates[write - 1]) {
+                times[write] = times[read];
+                rates[write] = rates[read];
+                write++;
+            }
+        }
+        size = write;
+
+        if (size > MAX_POINTS) {
+            dropOldest(size - MAX_POINTS);
+        }
+    }
+
+    private void dropOldest(int count) {
+        System.arraycopy(times, count, times, 0, size - count);
+        System.arraycopy(rates, count, rates, 0, size - count);
+        size -= count;
+    }
+
+    private int search(long time) {
+        return Arrays.binarySearch(times, 0, size, time);
+    }
+}
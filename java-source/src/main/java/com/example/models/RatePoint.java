@@ -0,0 +1,30 @@
+package com.example.models;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import net.corda.core.serialization.CordaSerializable;
+
+import java.math.BigDecimal;
+
+/**
+ * A single observation of a {@link RateHistory}.
+ */
+@CordaSerializable
+public class RatePoint {
+    @JsonProperty
+    private final long timestamp;
+    @JsonProperty
+    private final BigDecimal rate;
+
+    public RatePoint(long timestamp, BigDecimal rate) {
+        this.timestamp = timestamp;
+        this.rate = rate;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public BigDecimal getRate() {
+        return rate;
+    }
+}
@@ -1,12 +1,26 @@
 package com.example.plugin;
 
 import com.example.api.ExampleApi;
+import com.example.api.ProfilingApi;
+import com.example.api.RpcMetrics;
+import com.example.api.RpcMetricsApi;
+import com.example.flow.BulkIssueFlow;
+import com.example.flow.ConsolidationFlow;
 import com.example.flow.ExampleFlow;
+import com.example.flow.MultiPaymentFlow;
+import com.example.flow.OrderBookFlow;
+import com.example.flow.ProfilingFlow;
+import com.example.flow.RateSubscriptionFlow;
+import com.example.service.ConsolidationService;
 import com.example.service.ExampleService;
+import com.example.service.OrderBookService;
+import com.example.service.RateHistoryService;
+import com.example.service.RateSubscriptionService;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import net.corda.core.contracts.Amount;
 import net.corda.core.crypto.Party;
+import net.corda.core.crypto.SecureHash;
 import net.corda.core.messaging.CordaRPCOps;
 import net.corda.core.node.CordaPluginRegistry;
 import net.corda.core.node.PluginServiceHub;
@@ -20,10 +34,19 @@ import java.util.*;
 import java.util.function.Function;
 
 public class ExamplePlugin extends CordaPluginRegistry {
+    /**
+     * Times and counts the RPC calls made by the web APIs, see /api/metrics/rpc.
+     */
+    private final RpcMetrics rpcMetrics = new RpcMetrics();
+
     /**
      * A list of classes that expose web APIs.
      */
-    private final List<Function<CordaRPCOps, ?>> webApis = Collections.singletonList(ExampleApi::new);
+    private final List<Function<CordaRPCOps, ?>> webApis = Arrays.asList(
+            services -> new ExampleApi(rpcMetrics.instrument(services)),
+            services -> new RpcMetricsApi(rpcMetrics),
+            ProfilingApi::new
+    );
 
     /**
      * A list of flows required for this CorDapp. Any flow which is invoked from from the web API needs to be
@@ -38,21 +61,97 @@ public class ExamplePlugin extends CordaPluginRegistry {
      * This map also acts as a white list. If a flow is invoked via the API and not registered correctly
      * here, then the flow state machine will _not_ invoke the flow. Instead, an exception will be raised.
      */
-    private final Map<String, Set<String>> requiredFlows = ImmutableMap.of(
-            IssuerFlow.IssuanceRequester.class.getName(),
-            new HashSet<>(Arrays.asList(
-                    AbstractCashFlow.class.getName(),
-                    Party.class.getName(),
-                    Amount.class.getName(),
-                    OpaqueBytes.class.getName()
-            )),
-            ExampleFlow.MasterFxFlow.class.getName(),
-            new HashSet<>(Arrays.asList(
-                    Party.class.getName(),
-                    Party.class.getName(),
-                    Amount.class.getName())
-            )
-    );
+    private final Map<String, Set<String>> requiredFlows = ImmutableMap.<String, Set<String>>builder()
+            .put(IssuerFlow.IssuanceRequester.class.getName(),
+                    new HashSet<>(Arrays.asList(
+                            AbstractCashFlow.class.getName(),
+                            Party.class.getName(),
+                            Amount.class.getName(),
+                            OpaqueBytes.class.getName()
+                    )))
+            .put(ExampleFlow.MasterFxFlow.class.getName(),
+                    new HashSet<>(Arrays.asList(
+                            Party.class.getName(),
+                            Party.class.getName(),
+                            Amount.class.getName())
+                    ))
+            .put(ExampleFlow.CurrencyRequester.class.getName(),
+                    new HashSet<>(Collections.singletonList(
+                            Party.class.getName())
+                    ))
+            .put(ExampleFlow.QuoteRequester.class.getName(),
+                    new HashSet<>(Arrays.asList(
+                            Party.class.getName(),
+                            String.class.getName())
+                    ))
+            .put(MultiPaymentFlow.class.getName(),
+                    new HashSet<>(Collections.singletonList(
+                            List.class.getName())
+                    ))
+            .put(ExampleFlow.SplitFxFlow.class.getName(),
+                    new HashSet<>(Arrays.asList(
+                            Party.class.getName(),
+                            Amount.class.getName(),
+                            List.class.getName())
+                    ))
+            .put(OrderBookFlow.StatusRequester.class.getName(),
+                    new HashSet<>(Arrays.asList(
+                            Party.class.getName(),
+                            SecureHash.class.getName())
+                    ))
+            .put(BulkIssueFlow.class.getName(),
+                    new HashSet<>(Arrays.asList(
+                            List.class.getName(),
+                            Party.class.getName())
+                    ))
+            .put(RateSubscriptionFlow.Subscribe.class.getName(),
+                    new HashSet<>(Collections.singletonList(
+                            Party.class.getName())
+                    ))
+            .put(RateSubscriptionFlow.PublishRate.class.getName(),
+                    new HashSet<>(Arrays.asList(
+                            String.class.getName(),
+                            Long.class.getName())
+                    ))
+            .put(RateSubscriptionFlow.ReadSubscribedRates.class.getName(),
+                    new HashSet<>())
+            .put(RateSubscriptionFlow.ReadRateHistory.class.getName(),
+                    new HashSet<>(Arrays.asList(
+                            String.class.getName(),
+                            Long.class.getName())
+                    ))
+            .put(RateSubscriptionFlow.ReadRateAsOf.class.getName(),
+                    new HashSet<>(Arrays.asList(
+                            String.class.getName(),
+                            Long.class.getName())
+                    ))
+            .put(ConsolidationFlow.class.getName(),
+                    new HashSet<>(Arrays.asList(
+                            String.class.getName(),
+                            Party.class.getName(),
+                            OpaqueBytes.class.getName(),
+                            Integer.class.getName())
+                    ))
+            .put(ProfilingFlow.Authorize.class.getName(),
+                    new HashSet<>())
+            .put(ProfilingFlow.Start.class.getName(),
+                    new HashSet<>(Collections.singletonList(
+                            String.class.getName())
+                    ))
+            .put(ProfilingFlow.Stop.class.getName(),
+                    new HashSet<>(Collections.singletonList(
+                            Long.class.getName())
+                    ))
+            .put(ProfilingFlow.TopFrames.class.getName(),
+                    new HashSet<>(Arrays.asList(
+                            Long.class.getName(),
+                            Integer.class.getName())
+                    ))
+            .put(ProfilingFlow.Fetch.class.getName(),
+                    new HashSet<>(Collections.singletonList(
+                            Long.class.getName())
+                    ))
+            .build();
 
     /**
      * A list of long lived services to be hosted within the node. Typically you would use these to register flow
@@ -60,7 +159,7 @@ public class ExamplePlugin extends CordaPluginRegistry {
      * flow. See the [ExampleService.Service] class for an implementation.
      */
 
-    private final List<Function<PluginServiceHub, ?>> servicePlugins = ImmutableList.of(IssuerFlow.Issuer.Service::new, ExampleService::new);
+    private final List<Function<PluginServiceHub, ?>> servicePlugins = ImmutableList.of(IssuerFlow.Issuer.Service::new, ExampleService::new, ConsolidationService::new, RateSubscriptionService::new, RateHistoryService::new, OrderBookService::new);
 
     /**
      * A list of directories in the resources directory that will be served by Jetty under /web.
@@ -99,6 +198,11 @@ public class ExamplePlugin extends CordaPluginRegistry {
         custom.addToWhitelist(FlowSessionException.class);
         custom.addToWhitelist(List.class);
         custom.addToWhitelist(ArrayList.class);
+        custom.addToWhitelist(MultiPaymentFlow.PaymentLeg.class);
+        custom.addToWhitelist(HashMap.class);
+        custom.addToWhitelist(RateSubscriptionFlow.RateBatch.class);
+        custom.addToWhitelist(ExampleFlow.MasterFxFlow.Outcome.class);
+        custom.addToWhitelist(LinkedHashMap.class);
 
 
         //java.util.LinkedHashMap$LinkedKeySet
@@ -0,0 +1,150 @@
+package com.example.service;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.JmxReporter;
+import com.codahale.metrics.MetricRegistry;
+import com.example.flow.ConsolidationFlow;
+import net.corda.contracts.asset.Cash;
+import net.corda.core.contracts.ContractState;
+import net.corda.core.contracts.Issued;
+import net.corda.core.contracts.StateAndRef;
+import net.corda.core.crypto.CompositeKey;
+import net.corda.core.flows.FlowStateMachine;
+import net.corda.core.node.PluginServiceHub;
+import net.corda.core.node.services.Vault;
+import net.corda.core.transactions.SignedTransaction;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps the number of cash states per (currency, issuer) low so that coin selection stays fast. The service counts our
+ * cash states per issued currency from the vault's update feed, publishes the counts as gauges over JMX under the
+ * {@code com.example.consolidation} domain, and once the vault has been quiet for a while starts a
+ * {@link ConsolidationFlow} for the most fragmented issued currency above the threshold.
+ * <p>
+ * Tuned with system properties: {@code example.consolidation.threshold} (states per issued currency before merging,
+ * default 20), {@code example.consolidation.batchSize} (states merged per transaction, default 50),
+ * {@code example.consolidation.quietMillis} (time without vault updates that counts as quiet, default 30s) and
+ * {@code example.consolidation.maxPerMinute} (consolidations started per minute, default 2). A threshold of 0 turns
+ * consolidation off while keeping the metrics.
+ */
+public class ConsolidationService {
+
+    private static final int THRESHOLD = Integer.getInteger("example.consolidation.threshold", 20);
+    private static final int BATCH_SIZE = Integer.getInteger("example.consolidation.batchSize", 50);
+    private static final long QUIET_MILLIS = Long.getLong("example.consolidation.quietMillis", 30 * 1000L);
+    private static final int MAX_PER_MINUTE = Integer.getInteger("example.consolidation.maxPerMinute", 2);
+
+    private final PluginServiceHub services;
+    private final CompositeKey me;
+    private final NodeExecutor nodeThread;
+
+    private final MetricRegistry metrics = new MetricRegistry();
+    private final Map<Issued<Currency>, AtomicInteger> stateCounts = new ConcurrentHashMap<>();
+    private final Deque<Long> recentRuns = new ArrayDeque<>();
+
+    private volatile long lastUpdate = System.currentTimeMillis();
+    private volatile boolean running = false;
+
+    public ConsolidationService(PluginServiceHub services) {
+        this.services = services;
+        this.me = services.getMyInfo().getLegalIdentity().getOwningKey();
+        this.nodeThread = new NodeExecutor(services, "consolidation");
+
+        for (StateAndRef<ContractState> stateAndRef : services.getVaultService().getCurrentVault().getStates()) {
+            count(stateAndRef, 1);
+        }
+        services.getVaultService().getUpdates().subscribe(this::apply);
+
+        JmxReporter.forRegistry(metrics).inDomain("com.example.consolidation").build().start();
+
+        if (THRESHOLD > 0) {
+            ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "cash-consolidation");
+                thread.setDaemon(true);
+                return thread;
+            });
+            scheduler.scheduleWithFixedDelay(this::consolidateIfQuiet, QUIET_MILLIS, QUIET_MILLIS / 2, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void apply(Vault.Update update) {
+        lastUpdate = System.currentTimeMillis();
+        update.getConsumed().forEach(stateAndRef -> count(stateAndRef, -1));
+        update.getProduced().forEach(stateAndRef -> count(stateAndRef, 1));
+    }
+
+    private void count(StateAndRef<ContractState> stateAndRef, int delta) {
+        ContractState state = stateAndRef.getState().getData();
+        if (!(state instanceof Cash.State) || !((Cash.State) state).getOwner().equals(me)) {
+            return;
+        }
+
+        Issued<Currency> token = ((Cash.State) state).getAmount().getToken();
+        stateCounts.computeIfAbsent(token, this::register).addAndGet(delta);
+    }
+
+    private AtomicInteger register(Issued<Currency> token) {
+        AtomicInteger counter = new AtomicInteger();
+        metrics.register(
+                MetricRegistry.name(token.getProduct().getCurrencyCode(), token.getIssuer().getParty().getName(), "states"),
+                (Gauge<Integer>) counter::get);
+        return counter;
+    }
+
+    private void consolidateIfQuiet() {
+        try {
+            long now = System.currentTimeMillis();
+            if (running || now - lastUpdate < QUIET_MILLIS || !withinRateLimit(now)) {
+                return;
+            }
+
+            Optional<Map.Entry<Issued<Currency>, AtomicInteger>> worst = stateCounts.entrySet().stream()
+                    .filter(entry -> entry.getValue().get() > THRESHOLD)
+                    .max(Comparator.comparingInt(entry -> entry.getValue().get()));
+            if (!worst.isPresent()) {
+                return;
+            }
+
+            Issued<Currency> token = worst.get().getKey();
+            System.out.println("consolidating " + worst.get().getValue().get() + " states of " + token);
+
+            running = true;
+            recentRuns.addLast(now);
+            nodeThread.execute(() -> consolidate(token));
+        } catch (Exception e) {
+            running = false;
+            System.out.println("consolidation failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Runs on the node's server thread, where flows have to be started.
+     */
+    private void consolidate(Issued<Currency> token) {
+        try {
+            FlowStateMachine<SignedTransaction> flow = services.invokeFlowAsync(ConsolidationFlow.class,
+                    token.getProduct().getCurrencyCode(),
+                    token.getIssuer().getParty(),
+                    token.getIssuer().getReference(),
+                    BATCH_SIZE
+            );
+            flow.getResultFuture().addListener(() -> running = false, Runnable::run);
+        } catch (Exception e) {
+            running = false;
+            System.out.println("consolidation failed: " + e.getMessage());
+        }
+    }
+
+    private boolean withinRateLimit(long now) {
+        while (!recentRuns.isEmpty() && now - recentRuns.peekFirst() > 60 * 1000) {
+            recentRuns.removeFirst();
+        }
+        return recentRuns.size() < MAX_PER_MINUTE;
+    }
+}
@@ -13,5 +13,9 @@ public class ExampleService {
         System.out.println("Registering...");
         services.registerFlowInitiator(JvmClassMappingKt.getKotlinClass(ExampleFlow.MasterFxFlow.class), ExampleFlow.CurrencyResponder::new);
         services.registerFlowInitiator(JvmClassMappingKt.getKotlinClass(ExampleFlow.ExchangeInitiator.class), ExampleFlow.ExchangeResponder::new);
+        services.registerFlowInitiator(JvmClassMappingKt.getKotlinClass(ExampleFlow.SplitFxFlow.class), ExampleFlow.CurrencyResponder::new);
+        services.registerFlowInitiator(JvmClassMappingKt.getKotlinClass(ExampleFlow.SplitExchangeInitiator.class), ExampleFlow.ExchangeResponder::new);
+        services.registerFlowInitiator(JvmClassMappingKt.getKotlinClass(ExampleFlow.QuoteRequester.class), ExampleFlow.QuoteResponder::new);
+        services.registerFlowInitiator(JvmClassMappingKt.getKotlinClass(ExampleFlow.CurrencyRequester.class), ExampleFlow.CurrencyResponder::new);
     }
 }
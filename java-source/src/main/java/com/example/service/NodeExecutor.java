@@ -0,0 +1,54 @@
+package com.example.service;
+
+import kotlin.Unit;
+import net.corda.core.messaging.MessagingService;
+import net.corda.core.messaging.TopicSession;
+import net.corda.core.node.PluginServiceHub;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+
+/**
+ * Runs tasks on the node's server thread. Services that keep their own scheduler must not start flows from it, since
+ * {@link PluginServiceHub#invokeFlowAsync} expects the server thread; they hand the work to this executor instead.
+ * <p>
+ * The node runs message handlers on its server thread, so a task is queued by sending the node a message on its own
+ * topic and run by the handler for that topic.
+ */
+public class NodeExecutor implements Executor {
+
+    private final MessagingService network;
+    private final TopicSession topic;
+    private final Map<UUID, Runnable> tasks = new ConcurrentHashMap<>();
+
+    /**
+     * @param name distinguishes the topic of this executor from those of other services.
+     */
+    public NodeExecutor(PluginServiceHub services, String name) {
+        this.network = services.getNetworkService();
+        this.topic = new TopicSession("platform.example.executor." + name, MessagingService.DEFAULT_SESSION_ID);
+
+        network.addMessageHandler(topic, (message, registration) -> {
+            Runnable task = tasks.remove(UUID.fromString(new String(message.getData(), StandardCharsets.UTF_8)));
+            if (task != null) {
+                task.run();
+            }
+            return Unit.INSTANCE;
+        });
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        UUID id = UUID.randomUUID();
+        tasks.put(id, task);
+        try {
+            network.send(network.createMessage(topic, id.toString().getBytes(StandardCharsets.UTF_8), id), network.getMyAddress());
+        } catch (RuntimeException e) {
+            tasks.remove(id);
+            throw e;
+        }
+    }
+}
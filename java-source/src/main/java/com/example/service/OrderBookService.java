@@ -0,0 +1,442 @@
+package com.example.service;
+
+import com.example.flow.MultiPaymentFlow;
+import com.example.flow.OrderBookFlow;
+import kotlin.jvm.JvmClassMappingKt;
+import net.corda.core.contracts.Amount;
+import net.corda.core.contracts.ContractsDSL;
+import net.corda.core.contracts.Issued;
+import net.corda.core.contracts.PartyAndReference;
+import net.corda.core.crypto.Party;
+import net.corda.core.crypto.SecureHash;
+import net.corda.core.flows.FlowStateMachine;
+import net.corda.core.node.PluginServiceHub;
+import net.corda.core.node.services.VaultService;
+import net.corda.core.serialization.OpaqueBytes;
+import net.corda.core.transactions.SignedTransaction;
+
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The trader's book of exchanges waiting for a payout, one FIFO queue per {@code FROM/TO} pair. An exchange that
+ * arrives while exchanges of the opposite pair are resting crosses them: it takes resting orders, oldest first, until
+ * the cash they brought in covers its own payout (or the queue runs out), and all of their payouts go out in one
+ * {@link MultiPaymentFlow} transaction. The cash each side paid the trader funds the other side, so only the residual
+ * comes out of the trader's inventory.
+ * <p>
+ * Resting is off unless {@code example.orderBook.restMillis} is set. With it, an exchange that finds nothing to cross
+ * is handed to the book and its flow ends; the book pays it out on its own once it has rested that long without being
+ * crossed. If the swap crossing resting orders fails, the book pays each of them out on its own as well. Those payouts
+ * are {@link OrderBookFlow.PayOut} flows the book starts on the node's server thread, see {@link NodeExecutor}; a
+ * failed one is tried again after {@code example.orderBook.retryMillis} (default 10s), doubling up to 10 minutes.
+ * <p>
+ * An order is identified by the transaction that paid its fees, and the book keeps it as notes on that transaction: a
+ * note when it starts resting, one per failed payout and one with the payout once it is paid. The node that placed
+ * the exchange reads them with {@link OrderBookFlow.StatusRequester}. On start the book waits {@link #REST_MILLIS},
+ * so swaps checkpointed before a restart can finish and note their payouts, and then puts the orders without a payout
+ * back in, see {@link #restore()}.
+ * <p>
+ * The methods taking or returning notes must be used from a flow, which provides the database transaction the vault
+ * notes need.
+ */
+public class OrderBookService {
+
+    public static final long REST_MILLIS = Long.getLong("example.orderBook.restMillis", 0L);
+    private static final long RETRY_MILLIS = Long.getLong("example.orderBook.retryMillis", 10 * 1000L);
+    private static final long MAX_RETRY_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+    /**
+     * The key of the notes listing the fee transactions of every order that ever rested.
+     */
+    private static final SecureHash ORDERS_KEY = SecureHash.sha256("orderbook/orders");
+    private static final String RESTING = "order resting";
+    private static final String PAID = "order paid";
+    private static final String FAILED = "order payout failed";
+    private static final String SEPARATOR = "|";
+
+    private static volatile OrderBookService instance;
+
+    private final PluginServiceHub services;
+    private final NodeExecutor nodeThread;
+    private final ScheduledExecutorService expiries = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "order-book-expiry");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Map<String, Deque<Order>> resting = new HashMap<>();
+    private final Map<SecureHash, Order> orders = new HashMap<>();
+
+    private long crossed;
+    private long swaps;
+    private long expired;
+
+    public OrderBookService(PluginServiceHub services) {
+        this.services = services;
+        this.nodeThread = new NodeExecutor(services, "order-book");
+        services.registerFlowInitiator(JvmClassMappingKt.getKotlinClass(OrderBookFlow.StatusRequester.class), OrderBookFlow.StatusResponder::new);
+        instance = this;
+
+        if (REST_MILLIS > 0) {
+            expiries.schedule(() -> nodeThread.execute(this::startRestore), REST_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public static OrderBookService getInstance() {
+        return instance;
+    }
+
+    /**
+     * Enters the exchange whose fees were paid in {@code feeTx}: it brought {@code received} in from {@code placedBy}
+     * and is owed {@code payout}. It either crosses resting orders right away, see {@link #swapLegs(SecureHash)}, or
+     * rests, noted on {@code feeTx}, until it is crossed or {@link #REST_MILLIS} have passed.
+     */
+    public synchronized void submit(SecureHash feeTx, Party placedBy, Party receiver, Amount<Issued<Currency>> received,
+                                    Amount<Issued<Currency>> payout) {
+        Order order = new Order(feeTx, System.currentTimeMillis(), placedBy, receiver, received, payout);
+        orders.put(order.id, order);
+
+        Deque<Order> opposite = resting.getOrDefault(pair(order.to, order.from), new ArrayDeque<>());
+        long covered = 0;
+        while (!opposite.isEmpty() && covered < payout.getQuantity()) {
+            Order match = opposite.poll();
+            match.crossedBy = order;
+            order.crossing.add(match);
+            covered += match.received.getQuantity();
+        }
+
+        if (order.crossing.isEmpty()) {
+            VaultService vault = services.getVaultService();
+            vault.addNoteToTransaction(ORDERS_KEY, feeTx.toString());
+            vault.addNoteToTransaction(feeTx, order.toNote());
+            rest(order, REST_MILLIS);
+        } else {
+            crossed += order.crossing.size() + 1;
+            swaps++;
+            System.out.println("swap " + swaps + " (" + crossed + " orders crossed so far): " + order + " crosses " + order.crossing + "; from inventory: "
+                    + Math.max(0, payout.getQuantity() - covered) + " " + order.to + ", "
+                    + Math.max(0, paidOut(order.crossing) - received.getQuantity()) + " " + order.from);
+        }
+    }
+
+    /**
+     * @return the payouts of order {@code id} and of every order it crossed, to be settled in one transaction, or an
+     * empty list if the order is resting.
+     */
+    public synchronized List<MultiPaymentFlow.PaymentLeg> swapLegs(SecureHash id) {
+        Order order = get(id);
+        List<MultiPaymentFlow.PaymentLeg> legs = new ArrayList<>();
+        if (order.crossing.isEmpty()) {
+            return legs;
+        }
+        legs.add(order.leg());
+        for (Order match : order.crossing) {
+            legs.add(match.leg());
+        }
+        return legs;
+    }
+
+    /**
+     * Records the outcome of the swap settling order {@code id} and the orders it crossed. A swap is noted on each
+     * crossed order; if it failed the crossed orders are paid out on their own. Order {@code id} itself is left to its
+     * flow.
+     */
+    public synchronized void settled(SecureHash id, SignedTransaction swap, String failure) {
+        Order order = orders.remove(id);
+        if (order == null) {
+            return;
+        }
+        for (Order match : order.crossing) {
+            orders.remove(match.id);
+            if (swap != null) {
+                services.getVaultService().addNoteToTransaction(match.id, paidNote(swap.getId()));
+            } else {
+                System.out.println("swap of " + order + " failed (" + failure + "), paying " + match + " alone");
+                nodeThread.execute(() -> payAlone(match, 0));
+            }
+        }
+    }
+
+    /**
+     * What became of the order with fee transaction {@code id}, for {@code asking}: {@code paid <tx id>},
+     * {@code retrying: <last failure>}, {@code resting}, or {@code unknown} if there is no such order or
+     * {@code asking} neither placed it nor receives its payout.
+     */
+    public String status(SecureHash id, Party asking) {
+        Iterable<String> notes = services.getVaultService().getTransactionNotes(id);
+        String placedBy = null;
+        String receiver = null;
+        String failure = null;
+        SecureHash paid = null;
+        for (String note : notes) {
+            String[] fields = note.split("\\" + SEPARATOR, -1);
+            if (fields[0].equals(RESTING) && fields.length == 12) {
+                placedBy = fields[2];
+                receiver = fields[3];
+            } else if (fields[0].equals(PAID) && fields.length == 2) {
+                paid = SecureHash.parse(fields[1]);
+            } else if (fields[0].equals(FAILED) && fields.length >= 2) {
+                failure = note.substring(FAILED.length() + SEPARATOR.length());
+            }
+        }
+
+        if (placedBy == null || !(asking.getName().equals(placedBy) || asking.getName().equals(receiver))) {
+            return "unknown";
+        }
+        if (paid != null) {
+            return "paid " + paid;
+        }
+        return failure != null ? "retrying: " + failure : "resting";
+    }
+
+    /**
+     * Puts every noted order that has no payout noted and is not in the book already back in, resting for what is
+     * left of its {@link #REST_MILLIS}. Orders whose parties are no longer known are skipped.
+     *
+     * @return the number of orders restored.
+     */
+    public synchronized int restore() {
+        VaultService vault = services.getVaultService();
+        List<Order> restored = new ArrayList<>();
+        for (String note : new LinkedHashSet<>(toList(vault.getTransactionNotes(ORDERS_KEY)))) {
+            SecureHash id;
+            try {
+                id = SecureHash.parse(note);
+            } catch (IllegalArgumentException e) {
+                System.out.println("skipping order note: " + note);
+                continue;
+            }
+            if (orders.containsKey(id)) {
+                continue;
+            }
+
+            Iterable<String> notes = vault.getTransactionNotes(id);
+            if (paidIn(notes) != null) {
+                continue;
+            }
+            Order order = null;
+            for (String orderNote : notes) {
+                if (orderNote.startsWith(RESTING + SEPARATOR)) {
+                    order = fromNote(id, orderNote);
+                }
+            }
+            if (order == null) {
+                System.out.println("cannot restore order " + id + " from its notes");
+                continue;
+            }
+            restored.add(order);
+        }
+
+        restored.sort(Comparator.comparingLong(order -> order.time));
+        long now = System.currentTimeMillis();
+        for (Order order : restored) {
+            orders.put(order.id, order);
+            rest(order, Math.max(0, order.time + REST_MILLIS - now));
+        }
+        // Orders placed since the start rested before the restored ones were back, but arrived after them.
+        for (Deque<Order> queue : resting.values()) {
+            List<Order> sorted = new ArrayList<>(queue);
+            sorted.sort(Comparator.comparingLong(order -> order.time));
+            queue.clear();
+            queue.addAll(sorted);
+        }
+        return restored.size();
+    }
+
+    /**
+     * @return the payout noted on an order, or null if it has none.
+     */
+    public static SecureHash paidIn(Iterable<String> orderNotes) {
+        for (String note : orderNotes) {
+            if (note.startsWith(PAID + SEPARATOR)) {
+                return SecureHash.parse(note.substring(PAID.length() + SEPARATOR.length()));
+            }
+        }
+        return null;
+    }
+
+    public static String paidNote(SecureHash payout) {
+        return PAID + SEPARATOR + payout;
+    }
+
+    public static String failedNote(String failure) {
+        return FAILED + SEPARATOR + failure;
+    }
+
+    private void rest(Order order, long delayMillis) {
+        resting.computeIfAbsent(pair(order.from, order.to), key -> new ArrayDeque<>()).add(order);
+        expiries.schedule(() -> expire(order), delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Pays order {@code order} out on its own if it is still resting, i.e. nothing crossed it while it rested.
+     */
+    private void expire(Order order) {
+        synchronized (this) {
+            if (order.crossedBy != null || !resting.get(pair(order.from, order.to)).remove(order)) {
+                return;
+            }
+            orders.remove(order.id);
+            expired++;
+        }
+        nodeThread.execute(() -> payAlone(order, 0));
+    }
+
+    /**
+     * Runs on the node's server thread, where flows have to be started.
+     */
+    private void payAlone(Order order, int attempt) {
+        try {
+            FlowStateMachine<SignedTransaction> payout = services.invokeFlowAsync(OrderBookFlow.PayOut.class,
+                    order.id, order.receiver, order.payout);
+            payout.getResultFuture().addListener(() -> {
+                SignedTransaction tx;
+                try {
+                    tx = payout.getResultFuture().get();
+                } catch (Exception e) {
+                    retry(order, attempt, e.getMessage());
+                    return;
+                }
+                if (tx == null) {
+                    retry(order, attempt, "see the notes of " + order.id);
+                } else {
+                    System.out.println("paid " + order + " alone (" + expired + " orders expired so far): " + tx.getId());
+                }
+            }, Runnable::run);
+        } catch (Exception e) {
+            retry(order, attempt, e.getMessage());
+        }
+    }
+
+    private void retry(Order order, int attempt, String failure) {
+        long delay = Math.min(MAX_RETRY_MILLIS, RETRY_MILLIS << Math.min(attempt, 16));
+        System.out.println("payout of " + order + " failed (" + failure + "), trying again in " + delay + "ms");
+        expiries.schedule(() -> nodeThread.execute(() -> payAlone(order, attempt + 1)), delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Runs on the node's server thread, where flows have to be started.
+     */
+    private void startRestore() {
+        try {
+            FlowStateMachine<Integer> restore = services.invokeFlowAsync(OrderBookFlow.Restore.class);
+            restore.getResultFuture().addListener(() -> {
+                try {
+                    System.out.println("restored " + restore.getResultFuture().get() + " resting orders");
+                } catch (Exception e) {
+                    System.out.println("could not restore resting orders: " + e.getMessage());
+                }
+            }, Runnable::run);
+        } catch (Exception e) {
+            System.out.println("could not restore resting orders: " + e.getMessage());
+        }
+    }
+
+    private Order get(SecureHash id) {
+        Order order = orders.get(id);
+        if (order == null) {
+            throw new IllegalArgumentException("No order " + id);
+        }
+        return order;
+    }
+
+    private Order fromNote(SecureHash id, String note) {
+        String[] fields = note.split("\\" + SEPARATOR, -1);
+        if (fields.length != 12) {
+            return null;
+        }
+        try {
+            Party placedBy = services.getIdentityService().partyFromName(fields[2]);
+            Party receiver = services.getIdentityService().partyFromName(fields[3]);
+            Amount<Issued<Currency>> received = amountFromFields(fields, 4);
+            Amount<Issued<Currency>> payout = amountFromFields(fields, 8);
+            if (placedBy == null || receiver == null || received == null || payout == null) {
+                return null;
+            }
+            return new Order(id, Long.parseLong(fields[1]), placedBy, receiver, received, payout);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private Amount<Issued<Currency>> amountFromFields(String[] fields, int from) {
+        Party issuer = services.getIdentityService().partyFromName(fields[from + 2]);
+        if (issuer == null) {
+            return null;
+        }
+        return new Amount<>(Long.parseLong(fields[from]), new Issued<>(
+                new PartyAndReference(issuer, new OpaqueBytes(Base64.getDecoder().decode(fields[from + 3]))),
+                ContractsDSL.currency(fields[from + 1])));
+    }
+
+    private static String amountToNote(Amount<Issued<Currency>> amount) {
+        PartyAndReference issuer = amount.getToken().getIssuer();
+        return amount.getQuantity() + SEPARATOR + amount.getToken().getProduct().getCurrencyCode() + SEPARATOR
+                + issuer.getParty().getName() + SEPARATOR + Base64.getEncoder().encodeToString(issuer.getReference().getBytes());
+    }
+
+    private static List<String> toList(Iterable<String> notes) {
+        List<String> list = new ArrayList<>();
+        notes.forEach(list::add);
+        return list;
+    }
+
+    private static long paidOut(List<Order> orders) {
+        long sum = 0;
+        for (Order order : orders) {
+            sum += order.payout.getQuantity();
+        }
+        return sum;
+    }
+
+    private static String pair(String from, String to) {
+        return from + "/" + to;
+    }
+
+    private static class Order {
+        final SecureHash id;
+        final long time;
+        final Party placedBy;
+        final Party receiver;
+        final Amount<Issued<Currency>> received;
+        final Amount<Issued<Currency>> payout;
+        final String from;
+        final String to;
+
+        final List<Order> crossing = new ArrayList<>();
+        Order crossedBy;
+
+        Order(SecureHash id, long time, Party placedBy, Party receiver, Amount<Issued<Currency>> received,
+              Amount<Issued<Currency>> payout) {
+            this.id = id;
+            this.time = time;
+            this.placedBy = placedBy;
+            this.receiver = receiver;
+            this.received = received;
+            this.payout = payout;
+            this.from = received.getToken().getProduct().getCurrencyCode();
+            this.to = payout.getToken().getProduct().getCurrencyCode();
+        }
+
+        MultiPaymentFlow.PaymentLeg leg() {
+            return new MultiPaymentFlow.PaymentLeg(receiver, payout);
+        }
+
+        /**
+         * {@code order resting|time|placedBy|receiver|received|payout}, each amount as
+         * {@code quantity|currency|issuer|base64 issuer reference}.
+         */
+        String toNote() {
+            return RESTING + SEPARATOR + time + SEPARATOR + placedBy.getName() + SEPARATOR + receiver.getName()
+                    + SEPARATOR + amountToNote(received) + SEPARATOR + amountToNote(payout);
+        }
+
+        @Override
+        public String toString() {
+            return "#" + id.toString().substring(0, 8) + " " + from + "->" + to + " " + payout.getQuantity() + " to " + receiver.getName();
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.example.service;
+
+import com.example.flow.RateSubscriptionFlow;
+import com.example.models.RateHistory;
+import com.example.models.RatePoint;
+import net.corda.core.crypto.SecureHash;
+import net.corda.core.node.PluginServiceHub;
+import net.corda.core.node.services.VaultService;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The trader's rate histories, read from the vault notes once per pair and then kept in memory, so pricing a quote or
+ * an exchange does not re-read and re-parse the pair's notes. New rates come in through {@link #record}, started from
+ * {@link RateSubscriptionFlow.PublishRate}, which appends the note and, once the pair's current generation is full,
+ * writes the compacted history as the next generation (see {@link RateHistory}). The vault cannot delete notes, so
+ * older generations stay in its database, but they are never read again. The web tier reads the histories through
+ * {@link RateSubscriptionFlow.ReadRateHistory} and {@link RateSubscriptionFlow.ReadRateAsOf} rather than the notes.
+ * <p>
+ * Must be used from a flow, which provides the database transaction the vault notes need.
+ */
+public class RateHistoryService {
+
+    private static volatile RateHistoryService instance;
+
+    private final PluginServiceHub services;
+    private final Map<String, Series> series = new ConcurrentHashMap<>();
+
+    public RateHistoryService(PluginServiceHub services) {
+        this.services = services;
+        instance = this;
+    }
+
+    public static RateHistoryService getInstance() {
+        return instance;
+    }
+
+    /**
+     * @return the fixed-point rate in force for {@code from -> to} at {@code time}, or null if there is none.
+     */
+    public Long rateAsOf(String from, String to, long time) {
+        Series pair = series(from, to);
+        synchronized (pair) {
+            int index = pair.history.indexAsOf(time);
+            return index < 0 ? null : pair.history.rateAt(index);
+        }
+    }
+
+    /**
+     * @return the point of {@code from -> to} in force at {@code time}, or null if there is none.
+     */
+    public RatePoint pointAsOf(String from, String to, long time) {
+        Series pair = series(from, to);
+        synchronized (pair) {
+            int index = pair.history.indexAsOf(time);
+            return index < 0 ? null : new RatePoint(pair.history.timeAt(index), RateHistory.fromScaled(pair.history.rateAt(index)));
+        }
+    }
+
+    /**
+     * @return the points of {@code from -> to} in {@code [since, until]}, see {@link RateHistory#range}.
+     */
+    public List<RatePoint> range(String from, String to, long since, long until) {
+        Series pair = series(from, to);
+        synchronized (pair) {
+            return pair.history.range(since, until);
+        }
+    }
+
+    public void record(String from, String to, long time, long scaledRate) {
+        VaultService vault = services.getVaultService();
+        Series pair = series(from, to);
+        synchronized (pair) {
+            pair.history.add(time, scaledRate);
+            vault.addNoteToTransaction(RateHistory.noteKey(from, to, pair.generation), RateHistory.toNote(time, scaledRate));
+            pair.notes++;
+
+            if (pair.notes >= RateHistory.NOTES_PER_GENERATION) {
+                // The new generation only becomes current once it is complete.
+                pair.history.compact();
+                int next = pair.generation + 1;
+                SecureHash key = RateHistory.noteKey(from, to, next);
+                for (int i = 0; i < pair.history.size(); i++) {
+                    vault.addNoteToTransaction(key, RateHistory.toNote(pair.history.timeAt(i), pair.history.rateAt(i)));
+                }
+                vault.addNoteToTransaction(RateHistory.generationKey(from, to), Integer.toString(next));
+                pair.generation = next;
+                pair.notes = pair.history.size();
+            }
+        }
+    }
+
+    private Series series(String from, String to) {
+        return series.computeIfAbsent(RateSubscriptionFlow.pair(from, to), key -> {
+            VaultService vault = services.getVaultService();
+            int generation = RateHistory.generation(vault.getTransactionNotes(RateHistory.generationKey(from, to)));
+            Iterable<String> notes = vault.getTransactionNotes(RateHistory.noteKey(from, to, generation));
+
+            int count = 0;
+            for (String ignored : notes) {
+                count++;
+            }
+            return new Series(RateHistory.fromNotes(notes), generation, count);
+        });
+    }
+
+    private static class Series {
+        final RateHistory history;
+        int generation;
+        int notes;
+
+        Series(RateHistory history, int generation, int notes) {
+            this.history = history;
+            this.generation = generation;
+            this.notes = notes;
+        }
+    }
+}
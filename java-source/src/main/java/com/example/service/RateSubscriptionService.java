@@ -0,0 +1,164 @@
+package com.example.service;
+
+import com.example.flow.RateSubscriptionFlow;
+import kotlin.jvm.JvmClassMappingKt;
+import net.corda.core.crypto.Party;
+import net.corda.core.flows.FlowStateMachine;
+import net.corda.core.node.PluginServiceHub;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Both ends of the rate subscriptions in {@link RateSubscriptionFlow}. On a trader it keeps the subscribers and the
+ * rate changes not yet sent, keeping only the latest rate per pair, and flushes them to every subscriber in one
+ * {@link RateSubscriptionFlow.PushRates} every {@code example.rates.pushIntervalMillis} (default 500ms). On a
+ * subscriber it keeps the traders it subscribed to and the local copy of their rates; pushes from any other node are
+ * ignored.
+ * <p>
+ * Every batch a trader sends carries its sequence number: pushes take the next one, a snapshot the last one taken
+ * before it was read. A subscriber keeps the sequence each of its rates came with and ignores older ones, so a push
+ * that was already sent when the snapshot was read cannot overwrite it, and the snapshot cannot overwrite a push
+ * that overtook it.
+ * <p>
+ * Subscriptions are only held in memory and nobody is told when one ends: a trader forgets its subscribers when it
+ * restarts and drops a subscriber whose push fails, and a subscriber that restarts ignores pushes until it subscribes
+ * again. Subscribers that need current rates should therefore subscribe again, which is harmless and returns the
+ * trader's full table, whenever they or the trader restart, or periodically.
+ */
+public class RateSubscriptionService {
+
+    private static final long PUSH_INTERVAL_MILLIS = Long.getLong("example.rates.pushIntervalMillis", 500L);
+
+    private static volatile RateSubscriptionService instance;
+
+    private final PluginServiceHub services;
+    private final NodeExecutor nodeThread;
+
+    private final Set<Party> traders = ConcurrentHashMap.newKeySet();
+    private final Set<Party> subscribers = ConcurrentHashMap.newKeySet();
+    private final Map<String, Long> pending = new HashMap<>();
+    // Starts at the clock, which runs far ahead of one push per interval, so it keeps growing across restarts.
+    private long sequence = System.currentTimeMillis();
+    private final Map<String, Map<String, Long>> subscribedRates = new ConcurrentHashMap<>();
+    private final Map<String, Map<String, Long>> subscribedSequences = new ConcurrentHashMap<>();
+
+    public RateSubscriptionService(PluginServiceHub services) {
+        this.services = services;
+        this.nodeThread = new NodeExecutor(services, "rate-push");
+
+        services.registerFlowInitiator(JvmClassMappingKt.getKotlinClass(RateSubscriptionFlow.Subscribe.class), RateSubscriptionFlow.SubscribeResponder::new);
+        services.registerFlowInitiator(JvmClassMappingKt.getKotlinClass(RateSubscriptionFlow.PushRates.class), RateSubscriptionFlow.PushRatesResponder::new);
+
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "rate-push");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::flush, PUSH_INTERVAL_MILLIS, PUSH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+
+        instance = this;
+    }
+
+    public static RateSubscriptionService getInstance() {
+        return instance;
+    }
+
+    public void addSubscriber(Party subscriber) {
+        subscribers.add(subscriber);
+    }
+
+    public void publish(String pair, long scaledRate) {
+        synchronized (pending) {
+            pending.put(pair, scaledRate);
+        }
+    }
+
+    /**
+     * @return the sequence number of the last push, to be sent with a snapshot read after this call.
+     */
+    public long snapshotSequence() {
+        synchronized (pending) {
+            return sequence;
+        }
+    }
+
+    /**
+     * Accepts pushes from {@code trader} from now on.
+     */
+    public void addTrader(Party trader) {
+        traders.add(trader);
+    }
+
+    /**
+     * Applies rates received from {@code trader}, except those for which a batch with a higher sequence number was
+     * applied already.
+     *
+     * @return false, ignoring the batch, if this node has not subscribed to {@code trader}.
+     */
+    public boolean apply(Party trader, RateSubscriptionFlow.RateBatch batch) {
+        if (!traders.contains(trader)) {
+            return false;
+        }
+        Map<String, Long> rates = subscribedRates.computeIfAbsent(trader.getName(), name -> new ConcurrentHashMap<>());
+        Map<String, Long> sequences = subscribedSequences.computeIfAbsent(trader.getName(), name -> new HashMap<>());
+        synchronized (sequences) {
+            batch.getRates().forEach((pair, scaledRate) -> {
+                if (sequences.getOrDefault(pair, Long.MIN_VALUE) <= batch.getSequence()) {
+                    sequences.put(pair, batch.getSequence());
+                    rates.put(pair, scaledRate);
+                }
+            });
+        }
+        return true;
+    }
+
+    public HashMap<String, RateSubscriptionFlow.RateBatch> getSubscribedRates() {
+        HashMap<String, RateSubscriptionFlow.RateBatch> copy = new HashMap<>();
+        subscribedRates.forEach((trader, rates) -> copy.put(trader, new RateSubscriptionFlow.RateBatch(new HashMap<>(rates), 0)));
+        return copy;
+    }
+
+    private void flush() {
+        RateSubscriptionFlow.RateBatch batch;
+        synchronized (pending) {
+            if (pending.isEmpty() || subscribers.isEmpty()) {
+                return;
+            }
+            batch = new RateSubscriptionFlow.RateBatch(new HashMap<>(pending), ++sequence);
+            pending.clear();
+        }
+
+        nodeThread.execute(() -> push(batch));
+    }
+
+    /**
+     * Runs on the node's server thread, where flows have to be started.
+     */
+    private void push(RateSubscriptionFlow.RateBatch batch) {
+        for (Party subscriber : subscribers) {
+            try {
+                FlowStateMachine<Void> push = services.invokeFlowAsync(RateSubscriptionFlow.PushRates.class, subscriber, batch);
+                push.getResultFuture().addListener(() -> {
+                    try {
+                        push.getResultFuture().get();
+                    } catch (Exception e) {
+                        drop(subscriber, e);
+                    }
+                }, Runnable::run);
+            } catch (Exception e) {
+                drop(subscriber, e);
+            }
+        }
+    }
+
+    private void drop(Party subscriber, Exception cause) {
+        System.out.println("dropping rate subscriber " + subscriber.getName() + ": " + cause.getMessage());
+        subscribers.remove(subscriber);
+    }
+}
@@ -0,0 +1,111 @@
+package com.example.api;
+
+import net.corda.core.crypto.Party;
+import net.corda.core.messaging.CordaRPCOps;
+import net.corda.core.messaging.SingleMessageRecipient;
+import net.corda.core.node.services.ServiceInfo;
+import net.corda.node.internal.CordaRPCOpsImpl;
+import net.corda.node.services.network.NetworkMapService;
+import net.corda.node.services.transactions.ValidatingNotaryService;
+import net.corda.testing.node.MockNetwork;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+
+/**
+ * Runs the web tier's network map against a mock network the size of the large preset in topology.gradle: one
+ * notary, 5 issuers of two currencies, 20 traders and 200 plain peers. Each test gets a network of its own.
+ */
+public class NetworkMapScaleTest {
+
+    private static final int ISSUERS = 5;
+    private static final int TRADERS = 20;
+    private static final int PEERS = 200;
+
+    private MockNetwork network;
+    private MockNetwork.MockNode controller;
+    private MockNetwork.MockNode observer;
+    private long entropy;
+    private final List<RpcFeeds> feeds = new ArrayList<>();
+
+    @Before
+    public void startNetwork() {
+        network = new MockNetwork();
+        controller = createNode(null, "Controller",
+                new ServiceInfo(NetworkMapService.Companion.getType(), null),
+                new ServiceInfo(ValidatingNotaryService.Companion.getType(), null));
+        for (int i = 1; i <= ISSUERS; i++) {
+            createNode("Issuer" + i, ServiceInfo.Companion.parse("corda.issuer.USD"), ServiceInfo.Companion.parse("corda.issuer.EUR"));
+        }
+        for (int i = 1; i <= TRADERS; i++) {
+            createNode("Trader" + i, ServiceInfo.Companion.parse("tn.fxtrader"));
+        }
+        for (int i = 1; i <= PEERS; i++) {
+            MockNetwork.MockNode peer = createNode("Node" + i, ServiceInfo.Companion.parse(i % 2 == 1 ? "main.currency.USD" : "main.currency.EUR"));
+            if (observer == null) {
+                observer = peer;
+            }
+        }
+        network.runNetwork(-1);
+    }
+
+    @After
+    public void stopNetwork() {
+        feeds.forEach(RpcFeeds::close);
+        network.stopNodes();
+    }
+
+    @Test
+    public void listsEveryNodeOfTheNetworkOnce() {
+        NetworkMapSnapshot snapshot = connect();
+
+        assertEquals(1 + ISSUERS + TRADERS + PEERS, snapshot.getNodes().size());
+        // Everyone but the observer itself and the Controller.
+        assertEquals(ISSUERS + TRADERS + PEERS - 1, snapshot.getPeers().size());
+        assertEquals(TRADERS, snapshot.getTraders().size());
+        assertEquals(TRADERS, new HashSet<>(snapshot.getTraders()).size());
+        assertEquals(ISSUERS, snapshot.getIssuers().size());
+        assertEquals(1, snapshot.getNotaries().size());
+    }
+
+    @Test
+    public void followsNodesJoiningAfterTheSnapshot() {
+        NetworkMapSnapshot snapshot = connect();
+        List<Party> traders = snapshot.getTraders();
+        EncodedResponse tradersResponse = snapshot.tradersResponse();
+
+        String name = "Trader" + (TRADERS + 1);
+        createNode(name, ServiceInfo.Companion.parse("tn.fxtrader"));
+        network.runNetwork(-1);
+
+        assertEquals(traders.size() + 1, snapshot.getTraders().size());
+        assertEquals(name, snapshot.getTraders().get(snapshot.getTraders().size() - 1).getName());
+        assertNotSame(tradersResponse, snapshot.tradersResponse());
+    }
+
+    private NetworkMapSnapshot connect() {
+        CordaRPCOps ops = new CordaRPCOpsImpl(observer.getServices(), observer.getSmm(), observer.getDatabase());
+        RpcFeeds rpcFeeds = new RpcFeeds(ops);
+        feeds.add(rpcFeeds);
+        NetworkMapSnapshot snapshot = new NetworkMapSnapshot(ops, rpcFeeds, observer.getInfo().getLegalIdentity().getName(), "Controller");
+        rpcFeeds.connect();
+        return snapshot;
+    }
+
+    private MockNetwork.MockNode createNode(String name, ServiceInfo... services) {
+        return createNode(controller.getInfo().getAddress(), name, services);
+    }
+
+    private MockNetwork.MockNode createNode(SingleMessageRecipient networkMap, String name, ServiceInfo... services) {
+        return network.createNode(networkMap, -1, MockNetwork.DefaultFactory.INSTANCE, true, name, null,
+                BigInteger.valueOf(++entropy), services);
+    }
+}
@@ -0,0 +1,232 @@
+package com.example.api;
+
+import kotlin.Pair;
+import net.corda.core.crypto.CryptoUtilitiesKt;
+import net.corda.core.crypto.Party;
+import net.corda.core.messaging.CordaRPCOps;
+import net.corda.core.messaging.SingleMessageRecipient;
+import net.corda.core.node.NodeInfo;
+import net.corda.core.node.services.NetworkMapCache;
+import org.junit.Test;
+import rx.Observable;
+import rx.subjects.PublishSubject;
+
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class RpcFeedsSoakTest {
+
+    private static final int REQUESTS = Integer.getInteger("example.soak.requests", 200_000);
+    private static final int WINDOWS = 4;
+    private static final long MAX_HEAP_GROWTH = 16L * 1024 * 1024;
+
+    private final AtomicInteger opened = new AtomicInteger();
+    private final AtomicInteger upstreamSubscriptions = new AtomicInteger();
+    private final PublishSubject<Long> updates = PublishSubject.create();
+
+    private Pair<List<Long>, Observable<Long>> open() {
+        opened.incrementAndGet();
+        Observable<Long> upstream = updates
+                .doOnSubscribe(upstreamSubscriptions::incrementAndGet)
+                .doOnUnsubscribe(upstreamSubscriptions::decrementAndGet);
+        return new Pair<>(Collections.singletonList(0L), upstream);
+    }
+
+    @Test
+    public void sharesOneUpstreamSubscriptionBetweenConsumers() {
+        RpcFeeds feeds = new RpcFeeds(null);
+        AtomicLong first = new AtomicLong();
+        AtomicLong second = new AtomicLong();
+
+        feeds.feed("test", this::open).getUpdates().subscribe(first::addAndGet);
+        feeds.feed("test", this::open).getUpdates().subscribe(second::addAndGet);
+        assertEquals(0, upstreamSubscriptions.get());
+
+        feeds.connect();
+        updates.onNext(5L);
+
+        assertEquals(1, opened.get());
+        assertEquals(1, upstreamSubscriptions.get());
+        assertEquals(5, first.get());
+        assertEquals(5, second.get());
+    }
+
+    @Test
+    public void closeReleasesTheUpstreamSubscription() {
+        RpcFeeds feeds = new RpcFeeds(null);
+        feeds.feed("test", this::open).getUpdates().subscribe(update -> {
+        });
+        feeds.connect();
+        assertTrue(updates.hasObservers());
+
+        feeds.close();
+
+        assertFalse(updates.hasObservers());
+        assertEquals(0, upstreamSubscriptions.get());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void snapshotIsDroppedOnConnect() {
+        RpcFeeds feeds = new RpcFeeds(null);
+        RpcFeeds.Feed<List<Long>, Long> feed = feeds.feed("test", this::open);
+        assertEquals(Collections.singletonList(0L), feed.getSnapshot());
+
+        feeds.connect();
+        feed.getSnapshot();
+    }
+
+    /**
+     * Serves {@link #REQUESTS} requests through the real endpoints of {@link ExampleApi}, against a stub node whose
+     * network map keeps changing, and checks that every feed was opened and subscribed to exactly once however many
+     * requests were served, and that closing the API, as the web server does on shutdown, releases all of them.
+     * <p>
+     * The heap is measured after a warm-up tenth of the run and then after each of {@link #WINDOWS} windows of the
+     * rest; none may have grown by more than {@link #MAX_HEAP_GROWTH} over the warm-up, which leaves room for the
+     * peers joining the map but not for anything kept per request.
+     */
+    @Test
+    public void exampleApiHoldsOneSubscriptionPerFeed() throws Exception {
+        Path historyDir = Files.createTempDirectory("history-index");
+        System.setProperty("example.history.dir", historyDir.toString());
+        StubNode node = new StubNode();
+        ExampleApi api = new ExampleApi(node.proxy());
+        try {
+            assertEquals("Me", api.whoami().get("me"));
+
+            int warmUp = REQUESTS / 10;
+            serve(api, node, 0, warmUp);
+            long baseline = usedHeap();
+            int window = (REQUESTS - warmUp) / WINDOWS;
+            for (int w = 0; w < WINDOWS; w++) {
+                int from = warmUp + w * window;
+                serve(api, node, from, w == WINDOWS - 1 ? REQUESTS : from + window);
+                long growth = usedHeap() - baseline;
+                assertTrue("heap grew by " + growth + " bytes after window " + (w + 1) + " of " + WINDOWS, growth < MAX_HEAP_GROWTH);
+            }
+
+            for (String feed : StubNode.FEEDS) {
+                assertEquals(feed, 1, node.opened(feed));
+                assertEquals(feed, 1, node.subscribed(feed));
+            }
+            String lastJoined = "Peer" + ((REQUESTS - 1) / 100);
+            assertEquals(lastJoined, api.getPeerByName(lastJoined).getName());
+        } finally {
+            api.close();
+            System.clearProperty("example.history.dir");
+        }
+
+        for (String feed : StubNode.FEEDS) {
+            assertEquals(feed, 1, node.opened(feed));
+            assertEquals(feed, 0, node.subscribed(feed));
+        }
+    }
+
+    private static void serve(ExampleApi api, StubNode node, int from, int to) throws Exception {
+        for (int i = from; i < to; i++) {
+            if (i % 100 == 0) {
+                node.networkMap.onNext(new NetworkMapCache.MapChange(node.peer("Peer" + (i / 100)), null, NetworkMapCache.MapChangeType.Added));
+            }
+            assertEquals("Peer0", api.getPeerByName("Peer0").getName());
+            assertEquals("Me", api.whoami().get("me"));
+            api.getAllTransactions();
+            api.getHistory(null, null, 0, Long.MAX_VALUE, 0, 100);
+        }
+    }
+
+    /**
+     * The lowest of three readings of the used heap, each taken after a full GC.
+     */
+    private static long usedHeap() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        List<Long> samples = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(50);
+            samples.add(runtime.totalMemory() - runtime.freeMemory());
+        }
+        return Collections.min(samples);
+    }
+
+    /**
+     * Just enough of a node for {@link ExampleApi} to warm up: an identity, the three feeds, each counting how often it
+     * was opened and how many subscriptions it has, and empty answers to the calls made while warming up.
+     */
+    private static class StubNode {
+
+        static final List<String> FEEDS = Arrays.asList("networkMapUpdates", "vaultAndUpdates", "verifiedTransactions");
+
+        final PublishSubject<NetworkMapCache.MapChange> networkMap = PublishSubject.create();
+        private final Map<String, AtomicInteger> opened = new ConcurrentHashMap<>();
+        private final Map<String, AtomicInteger> subscribed = new ConcurrentHashMap<>();
+        private final NodeInfo me = peer("Me");
+
+        CordaRPCOps proxy() {
+            return (CordaRPCOps) Proxy.newProxyInstance(CordaRPCOps.class.getClassLoader(), new Class<?>[]{CordaRPCOps.class},
+                    (proxy, method, args) -> {
+                        switch (method.getName()) {
+                            case "nodeIdentity":
+                                return me;
+                            case "networkMapUpdates":
+                                return open(method.getName(), Collections.singletonList(peer("Peer0")), networkMap);
+                            case "vaultAndUpdates":
+                            case "verifiedTransactions":
+                                return open(method.getName(), Collections.emptyList(), PublishSubject.create());
+                            case "getCashBalances":
+                                return Collections.emptyMap();
+                            case "getVaultTransactionNotes":
+                                return Collections.emptyList();
+                            case "partyFromName":
+                                return null;
+                            case "hashCode":
+                                return System.identityHashCode(proxy);
+                            case "equals":
+                                return proxy == args[0];
+                            case "toString":
+                                return "stub node";
+                            default:
+                                throw new UnsupportedOperationException(method.getName());
+                        }
+                    });
+        }
+
+        NodeInfo peer(String name) {
+            return new NodeInfo(new Address(name), new Party(name, CryptoUtilitiesKt.getComposite(CryptoUtilitiesKt.generateKeyPair().getPublic())),
+                    Collections.emptyList(), null);
+        }
+
+        int opened(String feed) {
+            return opened.getOrDefault(feed, new AtomicInteger()).get();
+        }
+
+        int subscribed(String feed) {
+            return subscribed.getOrDefault(feed, new AtomicInteger()).get();
+        }
+
+        private <S, U> Pair<S, Observable<U>> open(String feed, S snapshot, Observable<U> updates) {
+            opened.computeIfAbsent(feed, name -> new AtomicInteger()).incrementAndGet();
+            AtomicInteger subscriptions = subscribed.computeIfAbsent(feed, name -> new AtomicInteger());
+            return new Pair<>(snapshot, updates
+                    .doOnSubscribe(subscriptions::incrementAndGet)
+                    .doOnUnsubscribe(subscriptions::decrementAndGet));
+        }
+    }
+
+    private static class Address implements SingleMessageRecipient {
+        private final String host;
+
+        Address(String host) {
+            this.host = host;
+        }
+
+        public String getHost() {
+            return host;
+        }
+    }
+}
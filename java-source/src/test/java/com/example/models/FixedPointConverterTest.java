@@ -0,0 +1,97 @@
+package com.example.models;
+
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class FixedPointConverterTest {
+
+    private static final RoundingMode[] MODES = {
+            RoundingMode.FLOOR, RoundingMode.CEILING, RoundingMode.DOWN, RoundingMode.UP,
+            RoundingMode.HALF_UP, RoundingMode.HALF_DOWN, RoundingMode.HALF_EVEN
+    };
+
+    @Test
+    public void matchesBigDecimalForRandomAmountsAndRates() {
+        Random random = new Random(42);
+        for (int i = 0; i < 100_000; i++) {
+            long quantity = random.nextLong() % 1_000_000_000_000_000L;
+            long scaledRate = random.nextInt(1_000) * RateHistory.SCALE / 100 + random.nextInt((int) RateHistory.SCALE);
+            RoundingMode mode = MODES[random.nextInt(MODES.length)];
+
+            assertEquals(quantity + " * " + scaledRate + " " + mode, expected(quantity, scaledRate, mode),
+                    FixedPointConverter.apply(quantity, scaledRate, mode));
+        }
+    }
+
+    @Test
+    public void matchesBigDecimalForLargeUnitRates() {
+        Random random = new Random(43);
+        for (int i = 0; i < 100_000; i++) {
+            long quantity = random.nextLong() % 100_000_000_000_000L;
+            long scaledRate = (1_000 + random.nextInt(20_000)) * RateHistory.SCALE + random.nextInt((int) RateHistory.SCALE);
+            RoundingMode mode = MODES[random.nextInt(MODES.length)];
+
+            assertEquals(quantity + " * " + scaledRate + " " + mode, expected(quantity, scaledRate, mode),
+                    FixedPointConverter.apply(quantity, scaledRate, mode));
+        }
+    }
+
+    @Test
+    public void convertsUsdToIdr() {
+        // 1,234.56 USD at 16,250.75 IDR per USD
+        long rate = RateHistory.toScaled(new BigDecimal("16250.75"));
+        assertEquals(2_006_252_592L, FixedPointConverter.apply(123_456, rate, RoundingMode.HALF_EVEN));
+    }
+
+    @Test
+    public void roundsTiesAsRequested() {
+        // 5 * 0.5 = 2.5 and -5 * 0.5 = -2.5
+        long half = RateHistory.SCALE / 2;
+        assertEquals(2, FixedPointConverter.apply(5, half, RoundingMode.HALF_EVEN));
+        assertEquals(3, FixedPointConverter.apply(5, half, RoundingMode.HALF_UP));
+        assertEquals(2, FixedPointConverter.apply(5, half, RoundingMode.HALF_DOWN));
+        assertEquals(-2, FixedPointConverter.apply(-5, half, RoundingMode.HALF_EVEN));
+        assertEquals(-3, FixedPointConverter.apply(-5, half, RoundingMode.HALF_UP));
+        assertEquals(-2, FixedPointConverter.apply(-5, half, RoundingMode.DOWN));
+        assertEquals(-3, FixedPointConverter.apply(-5, half, RoundingMode.FLOOR));
+    }
+
+    @Test
+    public void keepsPrecisionOnLargeAmounts() {
+        long quantity = 9_000_000_000_000_000L;
+        long rate = RateHistory.toScaled(new BigDecimal("0.12345678"));
+        assertEquals(1_111_111_020_000_000L, FixedPointConverter.apply(quantity, rate, RoundingMode.HALF_EVEN));
+    }
+
+    @Test(expected = ArithmeticException.class)
+    public void refusesResultsThatDoNotFit() {
+        FixedPointConverter.apply(Long.MAX_VALUE, 2 * RateHistory.SCALE, RoundingMode.HALF_EVEN);
+    }
+
+    @Test
+    public void convertsArraysInPlace() {
+        long[] quantities = {100, 250, 999, 1};
+        long rate = RateHistory.toScaled(new BigDecimal("0.015"));
+        long sum = FixedPointConverter.applyAndSum(quantities, 0, quantities.length, rate, RoundingMode.DOWN);
+
+        FixedPointConverter.apply(quantities, 1, 2, rate, RoundingMode.DOWN, quantities);
+
+        assertEquals(100, quantities[0]);
+        assertEquals(3, quantities[1]);
+        assertEquals(14, quantities[2]);
+        assertEquals(1, quantities[3]);
+        assertEquals(1 + 3 + 14, sum);
+    }
+
+    private static long expected(long quantity, long scaledRate, RoundingMode mode) {
+        return BigDecimal.valueOf(quantity)
+                .multiply(BigDecimal.valueOf(scaledRate, 8))
+                .setScale(0, mode)
+                .longValueExact();
+    }
+}
@@ -0,0 +1,64 @@
+package com.example.models;
+
+import net.corda.core.crypto.SecureHash;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.assertEquals;
+
+public class RateHistoryTest {
+
+    private static final long DAY = 24 * 60 * 60 * 1000L;
+
+    @Test
+    public void keepsOldPointsExactWhenReadFromNotes() {
+        long start = System.currentTimeMillis() - 30 * DAY;
+        List<String> notes = new ArrayList<>();
+        for (int minute = 0; minute < 120; minute++) {
+            notes.add(RateHistory.toNote(start + minute * 60_000L, 100 + minute));
+        }
+
+        RateHistory history = RateHistory.fromNotes(notes);
+
+        assertEquals(120, history.size());
+        assertEquals(100 + 7, history.rateAsOf(start + 7 * 60_000L + 30_000L, -1));
+    }
+
+    @Test
+    public void compactionChangesNoAsOfAnswer() {
+        Random random = new Random(7);
+        RateHistory history = new RateHistory();
+        long time = 0;
+        for (int i = 0; i < 5_000; i++) {
+            time += 1 + random.nextInt(1_000);
+            history.add(time, 100 + random.nextInt(3));
+        }
+
+        long[] probes = new long[1_000];
+        long[] before = new long[probes.length];
+        for (int i = 0; i < probes.length; i++) {
+            probes[i] = random.nextLong() % (time + 1_000);
+            before[i] = history.rateAsOf(Math.abs(probes[i]), -1);
+        }
+
+        history.compact();
+
+        for (int i = 0; i < probes.length; i++) {
+            assertEquals("as of " + Math.abs(probes[i]), before[i], history.rateAsOf(Math.abs(probes[i]), -1));
+        }
+    }
+
+    @Test
+    public void loadsTheCurrentGeneration() {
+        Map<SecureHash, List<String>> vault = new HashMap<>();
+        vault.put(RateHistory.noteKey("USD", "EUR", 0), Arrays.asList("1:10", "2:11"));
+        vault.put(RateHistory.noteKey("USD", "EUR", 1), Arrays.asList("1:10", "2:11", "3:12"));
+        vault.put(RateHistory.generationKey("USD", "EUR"), Collections.singletonList("1"));
+
+        RateHistory history = RateHistory.load(key -> vault.getOrDefault(key, Collections.emptyList()), "usd", "eur");
+
+        assertEquals(3, history.size());
+        assertEquals(12, history.rateAsOf(3, -1));
+    }
+}
@@ -3,8 +3,8 @@ package com.template
 import com.google.common.util.concurrent.Futures
 import net.corda.core.getOrThrow
 import net.corda.core.node.services.ServiceInfo
+import net.corda.node.driver.DriverDSLExposedInterface
 import net.corda.node.driver.driver
-import net.corda.node.services.User
 import net.corda.node.services.transactions.ValidatingNotaryService
 
 /**
@@ -19,21 +19,44 @@ import net.corda.node.services.transactions.ValidatingNotaryService
  *    with port 5007, which should be "NodeA". In any case, double-check the console output to be sure.
  * 4. Set your breakpoints in your CorDapp code.
  * 5. Run the "Debug CorDapp" remote debug run configuration.
+ *
+ * By default the classic Controller, NodeA, NodeB and NodeC are started. To start a bigger network pass a [Topology],
+ * e.g. -Dtopology=large or -Dtopology.traders=20 -Dtopology.peers=200.
  */
 fun main(args: Array<String>) {
-    // No permissions required as we are not invoking flows.
-    val user = User("user1", "test", permissions = setOf())
+    val topology = Topology.fromSystemProperties()
     driver(isDebug = true) {
-        startNode("Controller", setOf(ServiceInfo(ValidatingNotaryService.type)))
-        val (nodeA, nodeB, nodeC) = Futures.allAsList(
-                startNode("NodeA", rpcUsers = listOf(user)),
-                startNode("NodeB", rpcUsers = listOf(user)),
-                startNode("NodeC", rpcUsers = listOf(user))).getOrThrow()
-
-        startWebserver(nodeA)
-        startWebserver(nodeB)
-        startWebserver(nodeC)
+        if (topology == null) {
+            startClassicNodes()
+        } else {
+            startTopology(topology)
+        }
 
         waitForAllNodesToFinish()
     }
 }
+
+private fun DriverDSLExposedInterface.startClassicNodes() {
+    startNode("Controller", setOf(ServiceInfo(ValidatingNotaryService.type)))
+    val (nodeA, nodeB, nodeC) = Futures.allAsList(
+            startNode("NodeA", rpcUsers = listOf(Topology.user)),
+            startNode("NodeB", rpcUsers = listOf(Topology.user)),
+            startNode("NodeC", rpcUsers = listOf(Topology.user))).getOrThrow()
+
+    startWebserver(nodeA)
+    startWebserver(nodeB)
+    startWebserver(nodeC)
+}
+
+/**
+ * Starts the notaries first, then every other node of [topology] in parallel, and a web server for each of those
+ * that should have one.
+ */
+private fun DriverDSLExposedInterface.startTopology(topology: Topology) {
+    Futures.allAsList(topology.notaryNodes().map { startNode(it.name, it.advertisedServices) }).getOrThrow()
+    val specs = topology.otherNodes()
+    val nodes = Futures.allAsList(specs.map {
+        startNode(it.name, it.advertisedServices, rpcUsers = it.rpcUsers)
+    }).getOrThrow()
+    Futures.allAsList(specs.zip(nodes).filter { it.first.webServer }.map { startWebserver(it.second) }).getOrThrow()
+}
@@ -0,0 +1,81 @@
+package com.template
+
+import net.corda.core.node.services.ServiceInfo
+import net.corda.node.services.User
+import net.corda.node.services.transactions.ValidatingNotaryService
+
+/**
+ * A node to start: its legal name, advertised services, RPC users and whether it gets a web server.
+ */
+data class NodeSpec(val name: String, val advertisedServices: Set<ServiceInfo>, val rpcUsers: List<User>, val webServer: Boolean = true)
+
+/**
+ * The driver counterpart of topology.gradle: generates [notaries] validating notaries, [issuers] nodes issuing every
+ * one of [currencies], [traders] FX traders and [peers] plain nodes that take the currencies in turn as their main
+ * currency. Names follow the same scheme (Controller, Notary2.., Issuer1.., Trader1.., Node1..); the driver
+ * allocates the ports. As there, issuers and traders may request issuance, so traders can fund themselves, and plain
+ * peers get no web server.
+ */
+data class Topology(val notaries: Int,
+                    val issuers: Int,
+                    val traders: Int,
+                    val peers: Int,
+                    val currencies: List<String> = listOf("USD", "EUR")) {
+
+    init {
+        require(notaries >= 1) { "A network needs at least one notary" }
+        require(currencies.isNotEmpty()) { "At least one currency is needed" }
+    }
+
+    fun notaryNodes(): List<NodeSpec> = (1..notaries).map {
+        NodeSpec(if (it == 1) "Controller" else "Notary$it", setOf(ServiceInfo(ValidatingNotaryService.type)), emptyList())
+    }
+
+    fun otherNodes(): List<NodeSpec> {
+        val issuerNodes = (1..issuers).map {
+            NodeSpec("Issuer$it", currencies.map { ServiceInfo.parse("corda.issuer.$it") }.toSet(), listOf(requester))
+        }
+        val traderNodes = (1..traders).map {
+            NodeSpec("Trader$it", setOf(ServiceInfo.parse("tn.fxtrader")), listOf(requester))
+        }
+        val peerNodes = (1..peers).map {
+            NodeSpec("Node$it", setOf(ServiceInfo.parse("main.currency.${currencies[(it - 1) % currencies.size]}")), listOf(user), webServer = false)
+        }
+        return issuerNodes + traderNodes + peerNodes
+    }
+
+    companion object {
+        // No permissions required as we are not invoking flows.
+        val user = User("user1", "test", permissions = setOf())
+
+        // Issuers and traders request issuance and pay out cash.
+        val requester = User("user1", "test", permissions = setOf(
+                "StartFlow.net.corda.flows.CashPaymentFlow",
+                "StartFlow.net.corda.flows.IssuerFlow\$IssuanceRequester"))
+
+        val presets = mapOf("large" to Topology(notaries = 1, issuers = 5, traders = 20, peers = 200))
+
+        /**
+         * The topology asked for with -Dtopology=<preset> or -Dtopology.notaries, .issuers, .traders, .peers and
+         * .currencies, or null if none was.
+         */
+        fun fromSystemProperties(): Topology? {
+            val keys = listOf("notaries", "issuers", "traders", "peers")
+            val preset = System.getProperty("topology")?.let {
+                presets[it] ?: throw IllegalArgumentException("Unknown topology $it, known: ${presets.keys}")
+            }
+            if (preset == null && keys.none { System.getProperty("topology.$it") != null }) {
+                return null
+            }
+
+            fun count(key: String, fallback: Int) = Integer.getInteger("topology.$key", fallback)
+            val base = preset ?: Topology(notaries = 1, issuers = 1, traders = 1, peers = 2)
+            return Topology(
+                    count("notaries", base.notaries),
+                    count("issuers", base.issuers),
+                    count("traders", base.traders),
+                    count("peers", base.peers),
+                    System.getProperty("topology.currencies")?.split(",") ?: base.currencies)
+        }
+    }
+}
@@ -1,10 +1,11 @@
 package com.template.api
 
+import com.template.flow.TemplateQueryFlow
+import com.template.state.TemplateState
+import net.corda.core.contracts.StateAndRef
+import net.corda.core.getOrThrow
 import net.corda.core.messaging.CordaRPCOps
-import javax.ws.rs.GET
-import javax.ws.rs.PUT
-import javax.ws.rs.Path
-import javax.ws.rs.Produces
+import javax.ws.rs.*
 import javax.ws.rs.core.MediaType
 import javax.ws.rs.core.Response
 
@@ -21,6 +22,20 @@ class TemplateApi(val services: CordaRPCOps) {
         return Response.accepted().entity("Template GET endpoint.").build()
     }
 
+    /**
+     * Accessible at /api/template/templateStates. Returns the [TemplateState]s involving the given participant (a legal
+     * name) and/or carrying the given reference, found through the node's indexed template_states table. Consumed
+     * states are left out unless includeConsumed is true.
+     */
+    @GET
+    @Path("templateStates")
+    @Produces(MediaType.APPLICATION_JSON)
+    fun templateStates(@QueryParam("participant") @DefaultValue("") participant: String,
+                       @QueryParam("reference") @DefaultValue("") reference: String,
+                       @QueryParam("includeConsumed") @DefaultValue("false") includeConsumed: Boolean): List<StateAndRef<TemplateState>> {
+        return services.startFlowDynamic(TemplateQueryFlow::class.java, participant, reference, includeConsumed).returnValue.getOrThrow()
+    }
+
     /**
      * Accessible at /api/template/templatePutEndpoint.
      */
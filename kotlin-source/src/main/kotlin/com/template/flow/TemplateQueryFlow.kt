@@ -0,0 +1,82 @@
+package com.template.flow
+
+import co.paralleluniverse.fibers.Suspendable
+import com.template.schema.TemplateSchemaV1
+import com.template.state.TemplateState
+import net.corda.core.contracts.StateAndRef
+import net.corda.core.contracts.StateRef
+import net.corda.core.crypto.SecureHash
+import net.corda.core.flows.FlowException
+import net.corda.core.flows.FlowLogic
+import net.corda.core.node.services.Vault
+import org.jetbrains.exposed.sql.transactions.TransactionManager
+import java.util.*
+
+/**
+ * Looks up [TemplateState]s through the indexed [TemplateSchemaV1] table instead of deserializing the ledger. Only
+ * the matching states are loaded. An empty [participant] or [reference] matches anything; the participant is a legal
+ * name and may be either the sender or the recipient.
+ *
+ * Only unconsumed states are returned, unless [includeConsumed] is set.
+ */
+class TemplateQueryFlow(val participant: String,
+                        val reference: String,
+                        val includeConsumed: Boolean) : FlowLogic<List<StateAndRef<TemplateState>>>() {
+
+    constructor(participant: String, reference: String) : this(participant, reference, false)
+
+    @Suspendable
+    override fun call(): List<StateAndRef<TemplateState>> {
+        val key = if (participant.isEmpty()) {
+            null
+        } else {
+            val party = serviceHub.identityService.partyFromName(participant) ?: throw FlowException("Unknown party $participant")
+            party.owningKey.toBase58String()
+        }
+        val query = query(key, if (reference.isEmpty()) null else reference, includeConsumed)
+
+        val refs = ArrayList<StateRef>()
+        TransactionManager.current().connection.prepareStatement(query.sql).use { statement ->
+            query.parameters.forEachIndexed { i, value -> statement.setString(i + 1, value) }
+            statement.executeQuery().use { rows ->
+                while (rows.next()) {
+                    refs += StateRef(SecureHash.parse(rows.getString(1)), rows.getInt(2))
+                }
+            }
+        }
+
+        return refs.map { serviceHub.toStateAndRef<TemplateState>(it) }
+    }
+
+    data class Query(val sql: String, val parameters: List<String>)
+
+    companion object {
+        /**
+         * Builds the SQL for a lookup. The template table is joined with the vault's own `vault_states` table, which
+         * knows whether each state has been consumed. Null filters match anything.
+         */
+        fun query(participantKey: String?, reference: String?, includeConsumed: Boolean): Query {
+            val conditions = ArrayList<String>()
+            val parameters = ArrayList<String>()
+
+            if (!includeConsumed) {
+                conditions += "v.state_status = ?"
+                parameters += Vault.StateStatus.UNCONSUMED.name
+            }
+            if (participantKey != null) {
+                conditions += "(t.sender_key = ? OR t.recipient_key = ?)"
+                parameters += participantKey
+                parameters += participantKey
+            }
+            if (reference != null) {
+                conditions += "t.reference = ?"
+                parameters += reference
+            }
+
+            val where = if (conditions.isEmpty()) "" else " WHERE " + conditions.joinToString(" AND ")
+            val sql = "SELECT t.transaction_id, t.output_index FROM ${TemplateSchemaV1.QUALIFIED_TABLE_NAME} t" +
+                    " JOIN vault_states v ON v.transaction_id = t.transaction_id AND v.output_index = t.output_index$where"
+            return Query(sql, parameters)
+        }
+    }
+}
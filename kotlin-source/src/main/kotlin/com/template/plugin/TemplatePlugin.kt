@@ -3,6 +3,7 @@ package com.template.plugin
 import com.esotericsoftware.kryo.Kryo
 import com.template.api.TemplateApi
 import com.template.flow.TemplateFlow
+import com.template.flow.TemplateQueryFlow
 import com.template.service.TemplateService
 import net.corda.core.messaging.CordaRPCOps
 import net.corda.core.node.CordaPluginRegistry
@@ -19,7 +20,8 @@ class TemplatePlugin : CordaPluginRegistry() {
      * A list of flows required for this CorDapp.
      */
     override val requiredFlows: Map<String, Set<String>> = mapOf(
-            TemplateFlow.Initiator::class.java.name to setOf()
+            TemplateFlow.Initiator::class.java.name to setOf(),
+            TemplateQueryFlow::class.java.name to setOf(String::class.java.name, Boolean::class.javaObjectType.name)
     )
 
     /**
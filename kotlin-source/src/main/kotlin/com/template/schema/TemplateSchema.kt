@@ -0,0 +1,53 @@
+package com.template.schema
+
+import net.corda.core.schemas.MappedSchema
+import net.corda.core.schemas.PersistentState
+import javax.persistence.Column
+import javax.persistence.Entity
+import javax.persistence.Index
+import javax.persistence.Table
+
+/**
+ * The family of schemas for [com.template.state.TemplateState].
+ */
+object TemplateSchema
+
+/**
+ * First version of the [TemplateSchema]: one row per state, with both participants and the reference indexed.
+ */
+object TemplateSchemaV1 : MappedSchema(
+        schemaFamily = TemplateSchema.javaClass,
+        version = 1,
+        mappedTypes = listOf(PersistentTemplateState::class.java)) {
+
+    const val TABLE_NAME = "template_states"
+
+    /**
+     * The node's HibernateObserver creates the tables of mapped schemas with this prefix, so SQL run against the
+     * node's database has to use [QUALIFIED_TABLE_NAME] rather than [TABLE_NAME].
+     */
+    const val TABLE_PREFIX = "contract_"
+    const val QUALIFIED_TABLE_NAME = TABLE_PREFIX + TABLE_NAME
+
+    @Entity
+    @Table(name = TABLE_NAME, indexes = arrayOf(
+            Index(name = "template_sender_key_idx", columnList = "sender_key"),
+            Index(name = "template_recipient_key_idx", columnList = "recipient_key"),
+            Index(name = "template_reference_idx", columnList = "reference")))
+    class PersistentTemplateState(
+            @Column(name = "sender_name")
+            var senderName: String = "",
+
+            @Column(name = "sender_key", length = 1024)
+            var senderKey: String = "",
+
+            @Column(name = "recipient_name")
+            var recipientName: String = "",
+
+            @Column(name = "recipient_key", length = 1024)
+            var recipientKey: String = "",
+
+            @Column(name = "reference")
+            var reference: String = ""
+    ) : PersistentState()
+}
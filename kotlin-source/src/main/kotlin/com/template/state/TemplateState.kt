@@ -1,14 +1,43 @@
 package com.template.state
 
 import com.template.contract.TemplateContract
+import com.template.schema.TemplateSchemaV1
 import net.corda.core.contracts.ContractState
 import net.corda.core.crypto.CompositeKey
+import net.corda.core.crypto.Party
+import net.corda.core.schemas.MappedSchema
+import net.corda.core.schemas.PersistentState
+import net.corda.core.schemas.QueryableState
 
 /**
  * Define your state object here.
+ *
+ * The state is also a [QueryableState]: when it lands in the vault the node writes it to the [TemplateSchemaV1]
+ * table, so it can be looked up with indexed SQL (see [com.template.flow.TemplateQueryFlow]) rather than by
+ * deserializing every transaction.
  */
-class TemplateState(override val contract: TemplateContract): ContractState {
+class TemplateState(override val contract: TemplateContract,
+                    val sender: Party,
+                    val recipient: Party,
+                    val reference: String) : ContractState, QueryableState {
     /** The public keys of the involved parties. */
     override val participants: List<CompositeKey>
-        get() = listOf()
-}
\ No newline at end of file
+        get() = listOf(sender.owningKey, recipient.owningKey)
+
+    override fun supportedSchemas(): Iterable<MappedSchema> = listOf(TemplateSchemaV1)
+
+    override fun generateMappedObject(schema: MappedSchema): PersistentState {
+        return when (schema) {
+            is TemplateSchemaV1 -> TemplateSchemaV1.PersistentTemplateState(
+                    senderName = sender.name,
+                    senderKey = sender.owningKey.toBase58String(),
+                    recipientName = recipient.name,
+                    recipientKey = recipient.owningKey.toBase58String(),
+                    reference = reference
+            )
+            else -> throw IllegalArgumentException("Unrecognised schema $schema")
+        }
+    }
+
+    override fun toString() = "TemplateState(sender=${sender.name}, recipient=${recipient.name}, reference=$reference)"
+}
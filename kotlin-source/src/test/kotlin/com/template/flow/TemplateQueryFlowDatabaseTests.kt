@@ -0,0 +1,91 @@
+package com.template.flow
+
+import com.template.contract.TemplateContract
+import com.template.state.TemplateState
+import net.corda.core.contracts.DummyContract
+import net.corda.core.contracts.StateAndRef
+import net.corda.core.contracts.StateRef
+import net.corda.core.contracts.TransactionType
+import net.corda.core.flows.FlowLogic
+import net.corda.core.getOrThrow
+import net.corda.core.utilities.DUMMY_NOTARY
+import net.corda.node.utilities.databaseTransaction
+import net.corda.testing.MINI_CORP
+import net.corda.testing.node.MockNetwork
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Before
+import org.junit.Test
+
+/**
+ * Runs [TemplateQueryFlow] against the H2 database of a mock node, so the SQL is checked against the tables the node
+ * actually creates: the `contract_` table of the schema and the vault's `vault_states`.
+ */
+class TemplateQueryFlowDatabaseTests {
+    lateinit var network: MockNetwork
+    lateinit var node: MockNetwork.MockNode
+
+    @Before
+    fun setup() {
+        network = MockNetwork()
+        node = network.createSomeNodes(1).partyNodes[0]
+    }
+
+    @After
+    fun tearDown() {
+        network.stopNodes()
+    }
+
+    @Test
+    fun `returns the unconsumed states`() {
+        val first = record(state("ref-1"))
+        record(state("ref-2"), consuming = first)
+
+        assertEquals(listOf("ref-2"), references(TemplateQueryFlow("", "")))
+    }
+
+    @Test
+    fun `returns consumed states when asked to`() {
+        val first = record(state("ref-1"))
+        record(state("ref-2"), consuming = first)
+
+        assertEquals(setOf("ref-1", "ref-2"), references(TemplateQueryFlow("", "", true)).toSet())
+    }
+
+    @Test
+    fun `filters by participant and reference`() {
+        record(state("ref-1"))
+        record(state("ref-2"))
+
+        assertEquals(listOf("ref-2"), references(TemplateQueryFlow(node.info.legalIdentity.name, "ref-2")))
+        assertEquals(listOf("ref-1"), references(TemplateQueryFlow("", "ref-1")))
+        assertEquals(emptyList<String>(), references(TemplateQueryFlow("", "ref-3")))
+    }
+
+    private fun state(reference: String) = TemplateState(TemplateContract(), node.info.legalIdentity, MINI_CORP, reference)
+
+    /**
+     * Records a transaction with [state] as its only output, spending [consuming] if given, straight into the node's
+     * storage and vault.
+     */
+    private fun record(state: TemplateState, consuming: StateRef? = null): StateRef {
+        return databaseTransaction(node.database) {
+            val builder = TransactionType.General.Builder(notary = DUMMY_NOTARY)
+            if (consuming != null) {
+                builder.addInputState(node.services.toStateAndRef<TemplateState>(consuming))
+            }
+            builder.addOutputState(state)
+            builder.addCommand(DummyContract.Commands.Create(), node.info.legalIdentity.owningKey)
+            builder.signWith(node.services.legalIdentityKey)
+            val stx = builder.toSignedTransaction(false)
+            node.services.recordTransactions(listOf(stx))
+            StateRef(stx.id, 0)
+        }
+    }
+
+    private fun references(flow: FlowLogic<List<StateAndRef<TemplateState>>>): List<String> {
+        val result = node.services.startFlow(flow).resultFuture
+        network.runNetwork()
+        return result.getOrThrow().map { it.state.data.reference }
+    }
+}
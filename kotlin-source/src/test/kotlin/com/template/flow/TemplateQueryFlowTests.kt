@@ -0,0 +1,52 @@
+package com.template.flow
+
+import com.template.contract.TemplateContract
+import com.template.schema.TemplateSchemaV1
+import com.template.state.TemplateState
+import net.corda.testing.MEGA_CORP
+import net.corda.testing.MINI_CORP
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import javax.persistence.Table
+
+class TemplateQueryFlowTests {
+    @Test
+    fun `maps both parties and the reference`() {
+        val state = TemplateState(TemplateContract(), MEGA_CORP, MINI_CORP, "ref-1")
+
+        val row = state.generateMappedObject(TemplateSchemaV1) as TemplateSchemaV1.PersistentTemplateState
+
+        assertEquals(MEGA_CORP.name, row.senderName)
+        assertEquals(MEGA_CORP.owningKey.toBase58String(), row.senderKey)
+        assertEquals(MINI_CORP.name, row.recipientName)
+        assertEquals(MINI_CORP.owningKey.toBase58String(), row.recipientKey)
+        assertEquals("ref-1", row.reference)
+    }
+
+    @Test
+    fun `queries the table the node creates`() {
+        val table = TemplateSchemaV1.PersistentTemplateState::class.java.getAnnotation(Table::class.java)
+
+        assertEquals("contract_" + table.name, TemplateSchemaV1.QUALIFIED_TABLE_NAME)
+        assertTrue(TemplateQueryFlow.query(null, null, false).sql.contains(" FROM contract_template_states "))
+    }
+
+    @Test
+    fun `leaves out consumed states by default`() {
+        val query = TemplateQueryFlow.query("key", "ref-1", false)
+
+        assertTrue(query.sql.contains("JOIN vault_states v ON v.transaction_id = t.transaction_id AND v.output_index = t.output_index"))
+        assertTrue(query.sql.contains("v.state_status = ?"))
+        assertEquals(listOf("UNCONSUMED", "key", "key", "ref-1"), query.parameters)
+    }
+
+    @Test
+    fun `can include consumed states`() {
+        val query = TemplateQueryFlow.query(null, "ref-1", true)
+
+        assertFalse(query.sql.contains("state_status"))
+        assertEquals(listOf("ref-1"), query.parameters)
+    }
+}